@@ -18,8 +18,15 @@ repositories {
     mavenCentral()
 }
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
 dependencies {
     testImplementation("junit:junit:4.13.2")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 group = "xland.ioutils.com.nothome"
@@ -49,6 +56,30 @@ tasks.jar {
     }
 }
 
+// ./gradlew jmh -PjmhArgs="DeltaBenchmark -p chunkSize=16"
+tasks.register("jmh", JavaExec::class) {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks, writing build/reports/jmh/results.json"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val results = buildDir.resolve("reports/jmh/results.json")
+    doFirst { results.parentFile.mkdirs() }
+    args("-rf", "json", "-rff", results.path, "-prof", "gc")
+    (findProperty("jmhArgs") as String?)?.let { extra -> args(extra.split(' ').filter { it.isNotEmpty() }) }
+}
+
+// ./gradlew jarBenchmark -PbenchArgs="--entries 5000 --change 0.2"
+tasks.register("jarBenchmark", JavaExec::class) {
+    group = "benchmark"
+    description = "Times whole-jar delta and patch, appending to build/reports/jar-benchmark/results.jsonl"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("xland.ioutils.xdelta.wrapper.JarBenchmark")
+    val results = buildDir.resolve("reports/jar-benchmark/results.jsonl")
+    doFirst { results.parentFile.mkdirs() }
+    args("--out", results.path)
+    (findProperty("benchArgs") as String?)?.let { extra -> args(extra.split(' ').filter { it.isNotEmpty() }) }
+}
+
 val proguardDir : File = buildDir.resolve("proguard")
 proguardDir.mkdir()
 val proguardOutput : File = proguardDir.resolve("${project.name}-${project.version}-proguard.jar")
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic source and target pairs for the benchmarks. The same size and
+ * seed always give the same bytes.
+ */
+public enum Corpus {
+
+    /**
+     * Unrelated random bytes, so that nothing matches.
+     */
+    RANDOM {
+        byte[][] generate(int size, Random random) {
+            byte[] source = new byte[size];
+            byte[] target = new byte[size];
+            random.nextBytes(source);
+            random.nextBytes(target);
+            return new byte[][] { source, target };
+        }
+    },
+
+    /**
+     * Random bytes, with short runs inserted, deleted and changed in the
+     * target every few KB, so that blocks are no longer aligned.
+     */
+    SHIFTED {
+        byte[][] generate(int size, Random random) {
+            byte[] source = new byte[size];
+            random.nextBytes(source);
+            ByteArrayOutputStream target = new ByteArrayOutputStream(size + size / 64);
+            int p = 0;
+            while (p < size) {
+                int n = Math.min(1024 + random.nextInt(8192), size - p);
+                target.write(source, p, n);
+                p += n;
+                byte[] run = new byte[1 + random.nextInt(32)];
+                switch (random.nextInt(3)) {
+                case 0:     // insert
+                    random.nextBytes(run);
+                    target.write(run, 0, run.length);
+                    break;
+                case 1:     // delete
+                    p += run.length;
+                    break;
+                default:    // change
+                    random.nextBytes(run);
+                    target.write(run, 0, run.length);
+                    p += run.length;
+                }
+            }
+            return new byte[][] { source, target.toByteArray() };
+        }
+    },
+
+    /**
+     * Concatenated records shaped like class files, with constant pools of
+     * identifiers and skewed code bytes. The target renames identifiers,
+     * adds code and drops and adds records, like a rebuilt jar.
+     */
+    CLASSES {
+        private final String[] words = {
+            "java/lang/", "Object", "String", "get", "set", "Value", "Name", "init",
+            "<init>", "()V", "(I)V", "Ljava/lang/String;", "xland/ioutils/", "Delta",
+            "Checksum", "Patch", "Source", "Target", "Code", "LineNumberTable", "this",
+        };
+
+        byte[][] generate(int size, Random random) {
+            ByteArrayOutputStream source = new ByteArrayOutputStream(size);
+            ByteArrayOutputStream target = new ByteArrayOutputStream(size + size / 8);
+            long seed = random.nextLong();
+            for (int i = 0; source.size() < size; i++) {
+                int change = random.nextInt(10);
+                if (change != 0)  // removed from the target
+                    record(source, new Random(seed + i), 0);
+                if (change > 1 || change == 0)  // added to the target
+                    record(target, new Random(seed + i), change < 3 ? 1 + random.nextInt(3) : 0);
+            }
+            byte[] s = source.toByteArray();
+            return new byte[][] { Arrays.copyOf(s, size), target.toByteArray() };
+        }
+
+        /**
+         * Writes a record, with some identifiers renamed and code added if
+         * <code>edits</code> is not 0.
+         */
+        private void record(ByteArrayOutputStream out, Random random, int edits) {
+            Random edit = new Random(random.nextLong() + edits);
+            out.write(0xca);
+            out.write(0xfe);
+            out.write(0xba);
+            out.write(0xbe);
+            int constants = 20 + random.nextInt(200);
+            for (int i = 0; i < constants; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int k = 1 + random.nextInt(4); k > 0; k--)
+                    sb.append(words[random.nextInt(words.length)]);
+                if (edits > 0 && edit.nextInt(16) == 0)
+                    sb.append(words[edit.nextInt(words.length)]);
+                byte[] utf = sb.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(1);
+                out.write(utf.length >> 8);
+                out.write(utf.length);
+                out.write(utf, 0, utf.length);
+            }
+            int code = 64 + random.nextInt(4096);
+            for (int i = 0; i < code; i++) {
+                // mostly loads, stores and invokes
+                int op = random.nextInt(4) != 0 ? 0x15 + random.nextInt(16) : 0xb6 + random.nextInt(4);
+                out.write(op);
+                if (op >= 0xb6) {
+                    out.write(0);
+                    out.write(random.nextInt(constants));
+                }
+                if (edits > 0 && edit.nextInt(256) == 0) {
+                    for (int k = edit.nextInt(64); k > 0; k--)
+                        out.write(0x15 + edit.nextInt(16));
+                }
+            }
+        }
+    };
+
+    /**
+     * Returns a source of <code>size</code> bytes and a target of about that size.
+     */
+    public byte[][] generate(int size, long seed) {
+        return generate(size, new Random(seed));
+    }
+
+    abstract byte[][] generate(int size, Random random);
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The source, target and patch shared by the benchmarks of one trial.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    static final long SEED = 0x6a617661L;
+
+    @Param({"SHIFTED", "CLASSES", "RANDOM"})
+    public Corpus corpus;
+
+    @Param({"4194304"})
+    public int size;
+
+    @Param({"16", "32", "64"})
+    public int chunkSize;
+
+    byte[] source;
+    byte[] target;
+    byte[] patch;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[][] pair = corpus.generate(size, SEED);
+        source = pair[0];
+        target = pair[1];
+        Delta delta = new Delta();
+        delta.setChunkSize(chunkSize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        delta.doCompute(source, target, new GDiffWriter(new DataOutputStream(out)));
+        patch = out.toByteArray();
+        System.out.println("patch size " + patch.length + " for " + target.length + " target bytes");
+    }
+
+}
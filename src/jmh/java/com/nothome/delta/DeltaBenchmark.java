@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computing a GDIFF patch with {@link Delta}, from arrays and from streams.
+ * One instance is reused per thread, as {@code JarDeltaV2} does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeltaBenchmark {
+
+    private Delta delta;
+    private final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+
+    @Setup(Level.Trial)
+    public void setup(CorpusState corpus) {
+        delta = new Delta();
+        delta.setChunkSize(corpus.chunkSize);
+    }
+
+    @Benchmark
+    public int compute(CorpusState corpus, Throughput throughput) throws IOException {
+        patch.reset();
+        delta.doCompute(corpus.source, corpus.target, new GDiffWriter(new DataOutputStream(patch)));
+        throughput.bytes += corpus.target.length;
+        throughput.patchBytes += patch.size();
+        return patch.size();
+    }
+
+    @Benchmark
+    public int computeStream(CorpusState corpus, Throughput throughput) throws IOException {
+        patch.reset();
+        delta.doCompute(new ByteBufferSeekableSource(corpus.source), new ByteArrayInputStream(corpus.target),
+                new GDiffWriter(new DataOutputStream(patch)));
+        throughput.bytes += corpus.target.length;
+        throughput.patchBytes += patch.size();
+        return patch.size();
+    }
+
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2003, 2007 s IT Solutions AT Spardat GmbH.
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+package xland.ioutils.xdelta.wrapper;
+
+import com.nothome.delta.Corpus;
+import com.nothome.delta.DeltaStats;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Times {@link JarDeltaV2#computeDelta} and {@link JarPatcherV2#applyDelta} end to end over a synthetic
+ * pair of jars, and prints one JSON object per measured run, e.g. for regression tracking.
+ * <p>
+ * Each run is broken down into phases, in nanoseconds:
+ * <ul>
+ *     <li>read: reading jar files, i.e. opening {@link ZipFile}s, and the raw bytes under a {@link ZipInputStream}</li>
+ *     <li>inflate: reading entry content, less the raw bytes read</li>
+ *     <li>diff: computing patches, or applying them together with the remaining bookkeeping</li>
+ *     <li>deflate: writing entries, less the bytes written to the file</li>
+ *     <li>write: writing to the output file</li>
+ * </ul>
+ * Needs nothing but the main and benchmark classes, so it runs offline, e.g.
+ * <code>java -cp build/classes/java/main:build/classes/java/jmh xland.ioutils.xdelta.wrapper.JarBenchmark</code>.
+ */
+public class JarBenchmark {
+    // JarBenchmark [--entries 2000] [--size 8192] [--spread 1.0] [--change 0.1] [--add 0.02] [--remove 0.02]
+    //              [--nested 2] [--seed 1] [--warmup 2] [--runs 5] [--dir path/to/work] [--out results.jsonl]
+
+    private static final int READ = 0, INFLATE = 1, DIFF = 2, DEFLATE = 3, WRITE = 4, TOTAL = 5;
+    private static final String[] PHASES = { "read", "inflate", "diff", "deflate", "write", "total" };
+    private static final long ENTRY_TIME = 1577836800000L;  // 2020-01-01
+
+    /**
+     * Shape of the generated jars.
+     */
+    static class Config {
+        int entries = 2000;
+        int size = 8192;        // median entry size
+        double spread = 1.0;    // sigma of the log-normal entry size
+        double change = 0.1;    // ratio of entries modified
+        double add = 0.02;      // ratio of entries only in the target
+        double remove = 0.02;   // ratio of entries only in the source
+        int nested = 2;         // nested jars, each with entries / 20 entries
+        long seed = 1;
+
+        String toJson() {
+            return "\"entries\":" + entries + ",\"size\":" + size + ",\"spread\":" + spread +
+                    ",\"change\":" + change + ",\"add\":" + add + ",\"remove\":" + remove +
+                    ",\"nested\":" + nested + ",\"seed\":" + seed;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Config config = new Config();
+        int warmup = 2, runs = 5;
+        Path dir = null;
+        PrintStream out = System.out;
+
+        final Iterator<Arg> iterator = Arg.parse(args).iterator();
+        while (iterator.hasNext()) {
+            Arg arg = iterator.next();
+            if (!arg.isGnu() || !iterator.hasNext())
+                throw new IllegalArgumentException("Unexpected " + arg);
+            String value = iterator.next().toString();
+            switch (arg.getContext()) {
+                case "entries": config.entries = Integer.parseInt(value); break;
+                case "size": config.size = Integer.parseInt(value); break;
+                case "spread": config.spread = Double.parseDouble(value); break;
+                case "change": config.change = Double.parseDouble(value); break;
+                case "add": config.add = Double.parseDouble(value); break;
+                case "remove": config.remove = Double.parseDouble(value); break;
+                case "nested": config.nested = Integer.parseInt(value); break;
+                case "seed": config.seed = Long.parseLong(value); break;
+                case "warmup": warmup = Integer.parseInt(value); break;
+                case "runs": runs = Integer.parseInt(value); break;
+                case "dir": dir = Paths.get(value); break;
+                case "out": out = new PrintStream(new FileOutputStream(value, true), true, "UTF-8"); break;
+                default: throw new IllegalArgumentException("Unexpected " + arg);
+            }
+        }
+
+        if (dir == null) {
+            dir = Files.createTempDirectory("jarbench");
+            dir.toFile().deleteOnExit();
+        } else {
+            Files.createDirectories(dir);
+        }
+        final Path source = dir.resolve("source.jar"), target = dir.resolve("target.jar");
+        final Path patch = dir.resolve("patch.jar"), output = dir.resolve("output.jar");
+        generate(config, source, target);
+
+        for (int run = -warmup; run < runs; run++) {
+            long[] phases = new long[PHASES.length];
+            DeltaStats stats = computeDelta(source, target, patch, phases);
+            if (run >= 0)
+                out.println(json("delta", run, config, phases, source, target, patch,
+                        ",\"copyBytes\":" + stats.getCopyBytes() + ",\"dataBytes\":" + stats.getDataBytes()));
+
+            phases = new long[PHASES.length];
+            applyDelta(source, patch, output, phases);
+            if (run == -warmup)
+                verify(target, output);
+            if (run >= 0)
+                out.println(json("patch", run, config, phases, source, target, patch, ""));
+        }
+        for (Path p : new Path[] { source, target, patch, output })
+            p.toFile().deleteOnExit();
+        if (out != System.out)
+            out.close();
+    }
+
+    private static DeltaStats computeDelta(Path source, Path target, Path patch, long[] phases) throws IOException {
+        final DeltaStats stats = new DeltaStats();
+        long start = System.nanoTime();
+        try (ZipFile zs = new TimedZipFile(source.toFile(), phases);
+             ZipFile zt = new TimedZipFile(target.toFile(), phases);
+             ZipOutputStream zp = new TimedZipOutputStream(
+                     new TimedOutputStream(Files.newOutputStream(patch), phases), phases)) {
+            phases[READ] = System.nanoTime() - start;
+            JarDeltaV2.computeDelta(zs, zt, zp, JarDeltaV2.DEFAULT_MAX_PATCH_RATIO, stats);
+        }
+        phases[TOTAL] = System.nanoTime() - start;
+        phases[DIFF] = stats.getTotalNanos();
+        phases[DEFLATE] -= phases[WRITE];
+        return stats;
+    }
+
+    private static void applyDelta(Path source, Path patch, Path output, long[] phases) throws IOException {
+        long start = System.nanoTime();
+        long open;
+        try (ZipInputStream zs = new TimedZipInputStream(
+                     new TimedInputStream(Files.newInputStream(source), phases, READ), phases);
+             ZipFile zp = new TimedZipFile(patch.toFile(), phases);
+             ZipOutputStream zo = new TimedZipOutputStream(
+                     new TimedOutputStream(Files.newOutputStream(output), phases), phases)) {
+            open = System.nanoTime() - start;
+            JarPatcherV2.applyDelta(zs, zp, zo, false);
+        }
+        phases[TOTAL] = System.nanoTime() - start;
+        phases[INFLATE] -= phases[READ];
+        phases[READ] += open;
+        phases[DEFLATE] -= phases[WRITE];
+        phases[DIFF] = phases[TOTAL] - phases[READ] - phases[INFLATE] - phases[DEFLATE] - phases[WRITE];
+    }
+
+    private static String json(String op, int run, Config config, long[] phases,
+                               Path source, Path target, Path patch, String extra) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"op\":\"").append(op).append("\",\"run\":").append(run)
+                .append(',').append(config.toJson())
+                .append(",\"sourceBytes\":").append(Files.size(source))
+                .append(",\"targetBytes\":").append(Files.size(target))
+                .append(",\"patchBytes\":").append(Files.size(patch));
+        for (int i = 0; i < PHASES.length; i++)
+            sb.append(",\"").append(PHASES[i]).append("Ns\":").append(phases[i]);
+        return sb.append(extra).append('}').toString();
+    }
+
+    /**
+     * Writes a source jar and a target jar with the same random entries, some of them modified,
+     * added or removed, and nested jars that differ in the same way.
+     */
+    static void generate(Config config, Path source, Path target) throws IOException {
+        final Random random = new Random(config.seed);
+        try (ZipOutputStream zs = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(source)));
+             ZipOutputStream zt = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+            entries(config, config.entries, random, zs, zt);
+            for (int i = 0; i < config.nested; i++) {
+                ByteArrayOutputStream ns = new ByteArrayOutputStream(), nt = new ByteArrayOutputStream();
+                try (ZipOutputStream nzs = new ZipOutputStream(ns); ZipOutputStream nzt = new ZipOutputStream(nt)) {
+                    entries(config, Math.max(config.entries / 20, 1), random, nzs, nzt);
+                }
+                String name = "META-INF/jars/lib" + i + ".jar";
+                put(zs, name, ns.toByteArray());
+                put(zt, name, nt.toByteArray());
+            }
+        }
+    }
+
+    private static void entries(Config config, int count, Random random, ZipOutputStream zs, ZipOutputStream zt)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            String name = "pkg" + (i & 31) + "/C" + i + ".class";
+            int size = (int) Math.min(Math.exp(Math.log(config.size) + random.nextGaussian() * config.spread),
+                    (double) config.size * 64);
+            byte[][] pair = Corpus.CLASSES.generate(Math.max(size, 1), random.nextLong());
+            double x = random.nextDouble();
+            if (x < config.remove) {
+                put(zs, name, pair[0]);
+            } else if ((x -= config.remove) < config.add) {
+                put(zt, name, pair[0]);
+            } else if ((x -= config.add) < config.change) {
+                put(zs, name, pair[0]);
+                put(zt, name, pair[1]);
+            } else {
+                put(zs, name, pair[0]);
+                put(zt, name, pair[0]);
+            }
+        }
+    }
+
+    private static void put(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);  // nested jars are the same every time
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    /**
+     * Checks that the patched jar has the entries of the target jar.
+     */
+    private static void verify(Path target, Path output) throws IOException {
+        try (ZipFile zt = new ZipFile(target.toFile()); ZipFile zo = new ZipFile(output.toFile())) {
+            if (zt.size() != zo.size())
+                throw new IllegalStateException("patched " + zo.size() + " entries, expected " + zt.size());
+            for (Enumeration<? extends ZipEntry> e = zt.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                ZipEntry patched = zo.getEntry(entry.getName());
+                if (patched == null || !Arrays.equals(read(zt, entry), read(zo, patched)))
+                    throw new IllegalStateException("patched " + entry.getName() + " differs");
+            }
+        }
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(entry)) {
+            JarPatcherMain.transferTo(in, bytes);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Adds the time spent reading entries to {@link #INFLATE}.
+     */
+    private static class TimedZipFile extends ZipFile {
+        private final long[] phases;
+
+        TimedZipFile(File file, long[] phases) throws IOException {
+            super(file);
+            this.phases = phases;
+        }
+
+        @Override
+        public InputStream getInputStream(ZipEntry entry) throws IOException {
+            long start = System.nanoTime();
+            InputStream in = super.getInputStream(entry);
+            phases[INFLATE] += System.nanoTime() - start;
+            return in == null ? null : new TimedInputStream(in, phases, INFLATE);
+        }
+    }
+
+    /**
+     * Adds the time spent reading entries, including the raw bytes, to {@link #INFLATE}.
+     */
+    private static class TimedZipInputStream extends ZipInputStream {
+        private final long[] phases;
+        private int depth;  // calls nest, e.g. getNextEntry skips the rest of the previous entry
+
+        TimedZipInputStream(InputStream in, long[] phases) {
+            super(in);
+            this.phases = phases;
+        }
+
+        @Override
+        public ZipEntry getNextEntry() throws IOException {
+            long start = begin();
+            try {
+                return super.getNextEntry();
+            } finally {
+                end(start);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = begin();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                end(start);
+            }
+        }
+
+        private long begin() {
+            return depth++ == 0 ? System.nanoTime() : 0;
+        }
+
+        private void end(long start) {
+            if (--depth == 0)
+                phases[INFLATE] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Adds the time spent writing entries, including the bytes written, to {@link #DEFLATE}.
+     */
+    private static class TimedZipOutputStream extends ZipOutputStream {
+        private final long[] phases;
+        private int depth;  // calls nest, e.g. putNextEntry closes the previous entry
+
+        TimedZipOutputStream(OutputStream out, long[] phases) {
+            super(out);
+            this.phases = phases;
+        }
+
+        @Override
+        public void putNextEntry(ZipEntry e) throws IOException {
+            long start = begin();
+            try {
+                super.putNextEntry(e);
+            } finally {
+                end(start);
+            }
+        }
+
+        @Override
+        public void closeEntry() throws IOException {
+            long start = begin();
+            try {
+                super.closeEntry();
+            } finally {
+                end(start);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = begin();
+            try {
+                super.write(b, off, len);
+            } finally {
+                end(start);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            long start = begin();
+            try {
+                super.finish();
+            } finally {
+                end(start);
+            }
+        }
+
+        private long begin() {
+            return depth++ == 0 ? System.nanoTime() : 0;
+        }
+
+        private void end(long start) {
+            if (--depth == 0)
+                phases[DEFLATE] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Adds the time spent reading to a phase.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+        private final long[] phases;
+        private final int phase;
+
+        TimedInputStream(InputStream in, long[] phases, int phase) {
+            super(in);
+            this.phases = phases;
+            this.phase = phase;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                phases[phase] += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                phases[phase] += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Adds the time spent writing to {@link #WRITE}.
+     */
+    private static class TimedOutputStream extends FilterOutputStream {
+        private final long[] phases;
+
+        TimedOutputStream(OutputStream out, long[] phases) {
+            super(out);
+            this.phases = phases;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.write(b);
+            } finally {
+                phases[WRITE] += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.write(b, off, len);
+            } finally {
+                phases[WRITE] += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.flush();
+            } finally {
+                phases[WRITE] += System.nanoTime() - start;
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Match extension shared by the byte and text engines.
+ * <p>
+ * Uses the vectorized <code>Arrays.mismatch</code> on Java 9 and later,
+ * and compares 8 elements per iteration otherwise.
+ */
+public final class ArrayMatch {
+
+    private static final MethodHandle BYTE_MISMATCH = mismatch(byte[].class);
+    private static final MethodHandle CHAR_MISMATCH = mismatch(char[].class);
+
+    /**
+     * Elements compared at once when searching backwards.
+     */
+    private static final int SUFFIX_BLOCK = 64;
+
+    private ArrayMatch() {}
+
+    private static MethodHandle mismatch(Class<?> type) {
+        try {
+            return MethodHandles.publicLookup().findStatic(Arrays.class, "mismatch",
+                    MethodType.methodType(int.class, type, int.class, int.class, type, int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            return null;    // Java 8
+        }
+    }
+
+    /**
+     * Returns the length of the common prefix of <code>a[aFrom, aTo)</code>
+     * and <code>b[bFrom, bTo)</code>.
+     */
+    public static int commonPrefix(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int len = Math.min(aTo - aFrom, bTo - bFrom);
+        if (len <= 0)
+            return 0;
+        if (BYTE_MISMATCH != null) {
+            int i;
+            try {
+                i = (int) BYTE_MISMATCH.invokeExact(a, aFrom, aFrom + len, b, bFrom, bFrom + len);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new AssertionError(e);
+            }
+            return i < 0 ? len : i;
+        }
+        int i = 0;
+        while (i <= len - 8
+                && a[aFrom + i] == b[bFrom + i]
+                && a[aFrom + i + 1] == b[bFrom + i + 1]
+                && a[aFrom + i + 2] == b[bFrom + i + 2]
+                && a[aFrom + i + 3] == b[bFrom + i + 3]
+                && a[aFrom + i + 4] == b[bFrom + i + 4]
+                && a[aFrom + i + 5] == b[bFrom + i + 5]
+                && a[aFrom + i + 6] == b[bFrom + i + 6]
+                && a[aFrom + i + 7] == b[bFrom + i + 7])
+            i += 8;
+        while (i < len && a[aFrom + i] == b[bFrom + i])
+            i++;
+        return i;
+    }
+
+    /**
+     * Returns the length of the common suffix of <code>a[aFrom, aTo)</code>
+     * and <code>b[bFrom, bTo)</code>.
+     */
+    public static int commonSuffix(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int len = Math.min(aTo - aFrom, bTo - bFrom);
+        int i = 0;
+        // whole blocks with commonPrefix, then the mismatching block bytewise
+        while (i <= len - SUFFIX_BLOCK
+                && commonPrefix(a, aTo - i - SUFFIX_BLOCK, aTo - i, b, bTo - i - SUFFIX_BLOCK, bTo - i) == SUFFIX_BLOCK)
+            i += SUFFIX_BLOCK;
+        while (i < len && a[aTo - 1 - i] == b[bTo - 1 - i])
+            i++;
+        return i;
+    }
+
+    /**
+     * Returns the length of the common prefix of <code>a[aFrom, aTo)</code>
+     * and <code>b[bFrom, bTo)</code>.
+     */
+    public static int commonPrefix(char[] a, int aFrom, int aTo, char[] b, int bFrom, int bTo) {
+        int len = Math.min(aTo - aFrom, bTo - bFrom);
+        if (len <= 0)
+            return 0;
+        if (CHAR_MISMATCH != null) {
+            int i;
+            try {
+                i = (int) CHAR_MISMATCH.invokeExact(a, aFrom, aFrom + len, b, bFrom, bFrom + len);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new AssertionError(e);
+            }
+            return i < 0 ? len : i;
+        }
+        int i = 0;
+        while (i <= len - 8
+                && a[aFrom + i] == b[bFrom + i]
+                && a[aFrom + i + 1] == b[bFrom + i + 1]
+                && a[aFrom + i + 2] == b[bFrom + i + 2]
+                && a[aFrom + i + 3] == b[bFrom + i + 3]
+                && a[aFrom + i + 4] == b[bFrom + i + 4]
+                && a[aFrom + i + 5] == b[bFrom + i + 5]
+                && a[aFrom + i + 6] == b[bFrom + i + 6]
+                && a[aFrom + i + 7] == b[bFrom + i + 7])
+            i += 8;
+        while (i < len && a[aFrom + i] == b[bFrom + i])
+            i++;
+        return i;
+    }
+
+}
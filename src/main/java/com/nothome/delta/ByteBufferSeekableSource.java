@@ -28,10 +28,12 @@ package com.nothome.delta;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 
 /**
- * Wraps a byte buffer as a source
+ * Wraps a byte buffer as a source.
+ * {@link #read(long, ByteBuffer)} may be called by several threads at once.
  */
 public class ByteBufferSeekableSource implements SeekableSource {
     
@@ -69,14 +71,53 @@ public class ByteBufferSeekableSource implements SeekableSource {
     public int read(ByteBuffer dest) throws IOException {
         if (!cur.hasRemaining())
             return -1;
-        int c = 0;
-        while (cur.hasRemaining() && dest.hasRemaining()) {
-            dest.put(cur.get());
-            c++;
-        }
+        int c = Math.min(cur.remaining(), dest.remaining());
+        ByteBuffer src = cur.duplicate();
+        src.limit(src.position() + c);
+        dest.put(src);
+        cur.position(cur.position() + c);
+        return c;
+    }
+
+    public int read(long pos, ByteBuffer dest) throws IOException {
+        if (pos < 0 || pos > bb.limit())
+            throw new IOException("pos " + pos + " cannot seek " + bb.limit());
+        if (pos == bb.limit())
+            return -1;
+        ByteBuffer src = bb.slice();
+        src.position((int) pos);
+        int c = Math.min(src.remaining(), dest.remaining());
+        src.limit(src.position() + c);
+        dest.put(src);
         return c;
     }
     
+    /**
+     * Writes a slice of the buffer at <code>pos</code> straight to the target.
+     */
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        if (pos < 0 || pos > bb.limit())
+            throw new IOException("pos " + pos + " cannot seek " + bb.limit());
+        if (pos == bb.limit())
+            return -1;
+        ByteBuffer src = bb.slice();
+        src.position((int) pos);
+        if (src.remaining() > count)
+            src.limit(src.position() + (int) count);
+        return target.write(src);
+    }
+
+    public long length() {
+        return bb.limit();
+    }
+
+    /**
+     * Returns a view of the whole source, independent of the read position.
+     */
+    ByteBuffer buffer() {
+        return bb.slice();
+    }
+    
     public void close() throws IOException {
         bb = null;
         cur = null;
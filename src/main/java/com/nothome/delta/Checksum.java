@@ -27,14 +27,51 @@ package com.nothome.delta;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongConsumer;
 
 /**
  * Checksum computation class.
  */
 public class Checksum {
 
-    private final HashMap<Long, Integer> checksums = new HashMap<>();
+    /**
+     * Checksums on the heap, or <code>null</code> if {@link #offHeap} is used.
+     */
+    private final LongIntHashMap checksums;
+    private final OffHeapIndex offHeap;
+
+    /**
+     * For each indexed block, the previous indexed block with the same
+     * checksum, or -1; <code>null</code> if candidates are not chained.
+     * Both are counted in indexed blocks, see {@link #stride}.
+     */
+    private int[] chain;
+
+    /**
+     * Only every <code>stride</code>-th block is indexed.
+     */
+    private final int stride;
+
+    private final RollingHash hash;
+
+    /**
+     * Number of blocks inserted.
+     */
+    private long size;
+
+    /**
+     * Indexed blocks per range table of a parallel build.
+     */
+    private static final int RANGE = 1 << 16;
+    private static final int MAX_SHARDS = 64;
+    /**
+     * Fewest slots of the index per shard, so few keys are placed beyond it.
+     */
+    private static final int MIN_SHARD = 1 << 12;
     
     private static final char[] single_hash = {
         /* Random numbers generated using SLIB's pseudo-random number generator. */
@@ -74,23 +111,380 @@ public class Checksum {
     
     /**
      * Initialize checksums for source. The checksum for the <code>chunkSize</code> bytes at offset
-     * <code>chunkSize</code> * i is inserted into a hash map.
+     * <code>chunkSize</code> * i is inserted into a hash map, which is sized
+     * from {@link SeekableSource#length()} if known.
      */
     public Checksum(SeekableSource source, int chunkSize) throws IOException {
+        this(source, chunkSize, false);
+    }
+
+    /**
+     * Initialize checksums for source.
+     * If <code>chained</code>, every block sharing a checksum is kept and can be
+     * enumerated with {@link #nextChecksumIndex(int)}, otherwise only the last one.
+     */
+    public Checksum(SeekableSource source, int chunkSize, boolean chained) throws IOException {
+        this(source, chunkSize, chained, 1);
+    }
+
+    /**
+     * Initialize a sparse index for source, with only the blocks at
+     * <code>stride</code> * i, to bound its memory use.
+     * Block indices are still counted in blocks of <code>chunkSize</code>.
+     */
+    public Checksum(SeekableSource source, int chunkSize, boolean chained, int stride) throws IOException {
+        this(source, chunkSize, chained, stride, RollingHash.ADLER32);
+    }
+
+    /**
+     * Initialize checksums for source with another rolling hash, which the
+     * target must then be scanned with as well.
+     *
+     * @see #getRollingHash()
+     */
+    public Checksum(SeekableSource source, int chunkSize, boolean chained, int stride, RollingHash hash) throws IOException {
+        this(source, chunkSize, chained, stride, hash, null);
+    }
+
+    /**
+     * Initialize checksums for source, reusing the tables of
+     * <code>recycled</code>, if not <code>null</code>, which must not be
+     * used any more.
+     */
+    Checksum(SeekableSource source, int chunkSize, boolean chained, int stride, RollingHash hash, Checksum recycled) throws IOException {
+        if (stride <= 0)
+            throw new IllegalArgumentException("Invalid stride");
+        long length = source.length();
+        int blocks = length <= 0 ? 0 : (int) Math.min(length / chunkSize / stride, Integer.MAX_VALUE - 1);
+        checksums = table(recycled, blocks);
+        offHeap = null;
+        this.stride = stride;
+        this.hash = hash;
+        if (chained)
+            chain = chain(recycled, blocks);
+        hashBlocks(source, chunkSize, hash, this::add);
+    }
+
+    /**
+     * Initialize checksums for source into an {@link OffHeapIndex}, which
+     * supports block indices beyond <code>int</code> and keeps the checksums
+     * out of the Java heap. Blocks sharing a checksum are chained if the
+     * index is.
+     */
+    public Checksum(SeekableSource source, int chunkSize, OffHeapIndex index) throws IOException {
+        this(source, chunkSize, index, 1);
+    }
+
+    /**
+     * Initialize a sparse index for source into an {@link OffHeapIndex},
+     * with only the blocks at <code>stride</code> * i.
+     */
+    public Checksum(SeekableSource source, int chunkSize, OffHeapIndex index, int stride) throws IOException {
+        this(source, chunkSize, index, stride, RollingHash.ADLER32);
+    }
+
+    /**
+     * Initialize checksums for source into an {@link OffHeapIndex} with
+     * another rolling hash.
+     */
+    public Checksum(SeekableSource source, int chunkSize, OffHeapIndex index, int stride, RollingHash hash) throws IOException {
+        if (stride <= 0)
+            throw new IllegalArgumentException("Invalid stride");
+        checksums = null;
+        offHeap = index;
+        this.stride = stride;
+        this.hash = hash;
+        hashBlocks(source, chunkSize, hash, this::add);
+    }
+
+    /**
+     * Initialize checksums for source into an {@link OffHeapIndex} with its
+     * pages mapped from <code>channel</code>, or in direct memory if
+     * <code>null</code>, reusing the index of <code>recycled</code> if
+     * possible.
+     */
+    Checksum(SeekableSource source, int chunkSize, boolean chained, FileChannel channel, int stride, RollingHash hash, Checksum recycled) throws IOException {
+        if (stride <= 0)
+            throw new IllegalArgumentException("Invalid stride");
+        long length = source.length();
+        checksums = null;
+        offHeap = OffHeapIndex.recycle(recycled != null ? recycled.offHeap : null,
+                Math.max(length, 0) / chunkSize / stride, chained, channel);
+        this.stride = stride;
+        this.hash = hash;
+        hashBlocks(source, chunkSize, hash, this::add);
+    }
+
+    /**
+     * Initialize checksums from a signature of the source, looking blocks up
+     * in the index of the signature.
+     * The result is the same as that of {@link #Checksum(SeekableSource, int, boolean)}
+     * for the source the signature was computed from. Signatures always
+     * use {@link RollingHash#ADLER32}.
+     */
+    public Checksum(SourceSignature signature, boolean chained) {
+        checksums = null;
+        offHeap = signature.index(chained);
+        stride = 1;
+        hash = RollingHash.ADLER32;
+        size = signature.getBlockCount();
+    }
+
+    /**
+     * Passes the checksum of each whole block of the source to <code>sink</code>, in order.
+     */
+    static void hashBlocks(SeekableSource source, int chunkSize, RollingHash hash, LongConsumer sink) throws IOException {
         ByteBuffer bb = ByteBuffer.allocate(chunkSize * 2);
-        int count = 0;
         while (true) {
             source.read(bb);
             bb.flip();
             if (bb.remaining() < chunkSize)
                 break;
-            while (bb.remaining() >= chunkSize) {
-                long queryChecksum = queryChecksum0(bb, chunkSize);
-                checksums.put(queryChecksum, count++);
-            }
+            while (bb.remaining() >= chunkSize)
+                sink.accept(hash.hash(bb, chunkSize));
             bb.compact();
         }
     }
+
+    private void add(long hash) {
+        if (size % stride == 0) {
+            long indexed = size / stride;
+            if (offHeap != null) {
+                offHeap.add(hash, indexed);
+            } else {
+                put(hash, (int) indexed);
+            }
+        }
+        size++;
+    }
+
+    private void put(long hash, int indexed) {
+        int previous = checksums.put(hash, indexed);
+        if (chain != null)
+            link(indexed, previous);
+    }
+
+    /**
+     * Initialize checksums for an in-memory source, building the index on
+     * <code>pool</code>.
+     * The result is the same as that of {@link #Checksum(SeekableSource, int, boolean)}.
+     */
+    public Checksum(ByteBuffer source, int chunkSize, boolean chained, ForkJoinPool pool) {
+        this(source, chunkSize, chained, pool, 1);
+    }
+
+    /**
+     * Initialize a sparse index for an in-memory source in parallel, with
+     * only the blocks at <code>stride</code> * i.
+     */
+    public Checksum(ByteBuffer source, int chunkSize, boolean chained, ForkJoinPool pool, int stride) {
+        this(source, chunkSize, chained, pool, stride, RollingHash.ADLER32);
+    }
+
+    /**
+     * Initialize checksums for an in-memory source in parallel with another
+     * rolling hash.
+     */
+    public Checksum(ByteBuffer source, int chunkSize, boolean chained, ForkJoinPool pool, int stride, RollingHash hash) {
+        this(source, chunkSize, chained, pool, stride, hash, null);
+    }
+
+    /**
+     * Initialize checksums for an in-memory source in parallel, reusing the
+     * tables of <code>recycled</code>, if not <code>null</code>.
+     * <p>
+     * Ranges of {@link #RANGE} indexed blocks are first indexed into tables
+     * of their own, chaining blocks within the range. The range tables are
+     * then merged in block order into the index, by one task per shard of
+     * its slots; see {@link LongIntHashMap#home(long)}. Keys that would be
+     * placed beyond their shard are added last.
+     */
+    Checksum(ByteBuffer source, int chunkSize, boolean chained, ForkJoinPool pool, int stride, RollingHash hash, Checksum recycled) {
+        if (stride <= 0)
+            throw new IllegalArgumentException("Invalid stride");
+        int blocks = source.remaining() / chunkSize;
+        int indexed = (int) (((long) blocks + stride - 1) / stride);
+        checksums = table(recycled, indexed);
+        offHeap = null;
+        this.stride = stride;
+        this.hash = hash;
+        if (chained)
+            chain = chain(recycled, indexed);
+        size = blocks;
+        ByteBuffer bb = source.slice();
+        if (indexed <= RANGE) {
+            for (int i = 0; i < indexed; i++) {
+                bb.position(i * stride * chunkSize);
+                put(hash.hash(bb, chunkSize), i);
+            }
+            return;
+        }
+        LongIntHashMap[] ranges = new LongIntHashMap[(indexed - 1) / RANGE + 1];
+        pool.invoke(new RangeTask(bb, chunkSize, indexed, ranges, 0, ranges.length));
+        int shards = Math.min(Integer.highestOneBit(pool.getParallelism()) * 4, MAX_SHARDS);
+        while (shards > 1 && checksums.capacity() / shards < MIN_SHARD)
+            shards >>= 1;
+        MergeTask[] merges = new MergeTask[shards];
+        for (int i = 0; i < shards; i++)
+            merges[i] = new MergeTask(ranges, i, shards);
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(merges);
+            }
+        });
+        for (MergeTask merge : merges) {
+            checksums.added(merge.added);
+            for (int i = 0; i < merge.deferred; i += 2) {
+                int value = (int) merge.overflow[i + 1];
+                int previous = checksums.put(merge.overflow[i], value);
+                if (chain != null && previous != LongIntHashMap.NO_VALUE)
+                    chain[first(value)] = previous;
+            }
+        }
+    }
+
+    /**
+     * Returns the first block in the range of <code>index</code> its chain
+     * leads to, before the range tables are merged.
+     */
+    private int first(int index) {
+        while (chain[index] != -1)
+            index = chain[index];
+        return index;
+    }
+
+    /**
+     * Indexes the ranges <code>from</code> (inclusive) to <code>to</code> (exclusive).
+     */
+    private class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer source;
+        private final int chunkSize;
+        private final int indexed;
+        private final LongIntHashMap[] ranges;
+        private final int from;
+        private final int to;
+
+        RangeTask(ByteBuffer source, int chunkSize, int indexed, LongIntHashMap[] ranges, int from, int to) {
+            this.source = source;
+            this.chunkSize = chunkSize;
+            this.indexed = indexed;
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask(source, chunkSize, indexed, ranges, from, mid),
+                        new RangeTask(source, chunkSize, indexed, ranges, mid, to));
+                return;
+            }
+            int start = from * RANGE;
+            int end = Math.min(start + RANGE, indexed);
+            LongIntHashMap table = new LongIntHashMap(RANGE);
+            ByteBuffer bb = source.duplicate();
+            for (int i = start; i < end; i++) {
+                bb.position(i * stride * chunkSize);
+                int previous = table.put(hash.hash(bb, chunkSize), i);
+                if (chain != null)
+                    chain[i] = previous;
+            }
+            ranges[from] = table;
+        }
+
+    }
+
+    /**
+     * Merges the keys of one shard of the index from the range tables.
+     * The keys of a shard occupy the same fraction of every table, plus the
+     * run of slots they overflowed into.
+     */
+    private class MergeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LongIntHashMap[] ranges;
+        private final int shard;
+        private final int shards;
+
+        int added;
+        /**
+         * Keys and values that did not fit into the shard, in block order.
+         * Later blocks of such a key do not fit either, as slots are not freed.
+         */
+        long[] overflow = new long[16];
+        int deferred;
+
+        MergeTask(LongIntHashMap[] ranges, int shard, int shards) {
+            this.ranges = ranges;
+            this.shard = shard;
+            this.shards = shards;
+        }
+
+        @Override
+        protected void compute() {
+            int slots = checksums.capacity() / shards;
+            int limit = (shard + 1) * slots;
+            for (LongIntHashMap range : ranges) {
+                int size = range.capacity() / shards;
+                int mask = range.capacity() - 1;
+                for (int j = shard * size, end = j + size; ; j = (j + 1) & mask) {
+                    int value = range.valueAt(j);
+                    if (value == LongIntHashMap.NO_VALUE) {
+                        if (j >= end || j < shard * size)
+                            break;
+                        continue;
+                    }
+                    long key = range.keyAt(j);
+                    if (checksums.home(key) / slots != shard)
+                        continue;
+                    int previous = checksums.putBelow(key, value, limit);
+                    if (previous == LongIntHashMap.OVERFLOW)
+                        defer(key, value);
+                    else if (previous == LongIntHashMap.NO_VALUE)
+                        added++;
+                    else if (chain != null)
+                        chain[first(value)] = previous;
+                }
+            }
+        }
+
+        private void defer(long key, int value) {
+            if (deferred == overflow.length)
+                overflow = Arrays.copyOf(overflow, deferred * 2);
+            overflow[deferred++] = key;
+            overflow[deferred++] = value;
+        }
+
+    }
+
+    private static LongIntHashMap table(Checksum recycled, int blocks) {
+        if (recycled == null || recycled.checksums == null)
+            return new LongIntHashMap(blocks);
+        recycled.checksums.clear(blocks);
+        return recycled.checksums;
+    }
+
+    private static int[] chain(Checksum recycled, int blocks) {
+        // entries are written before they are read, so no need to clear
+        if (recycled != null && recycled.chain != null && recycled.chain.length >= blocks)
+            return recycled.chain;
+        return new int[Math.max(blocks, 16)];
+    }
+
+    private void link(int index, int previous) {
+        if (index >= chain.length)
+            chain = Arrays.copyOf(chain, (int) Math.min((long) chain.length * 2, Integer.MAX_VALUE - 8));
+        chain[index] = previous;
+    }
     
     /**
      * Finds the checksum computed from the buffer.
@@ -103,7 +497,19 @@ public class Checksum {
         return sum;
     }
     
-    private static long queryChecksum0(ByteBuffer bb, int len) {
+    /**
+     * Finds the checksum of <code>len</code> bytes of an array.
+     */
+    public static long queryChecksum(byte[] b, int off, int len) {
+        int high = 0; int low = 0;
+        for (int i = off; i < off + len; i++) {
+            low += single_hash[b[i]+128];
+            high += low;
+        }
+        return ((long) (high & 0xffff) << 16) | (low & 0xffff);
+    }
+    
+    static long queryChecksum0(ByteBuffer bb, int len) {
         int high = 0; int low = 0;
         for (int i = 0; i < len; i++) {
             low += single_hash[bb.get()+128];
@@ -139,9 +545,58 @@ public class Checksum {
      * Finds the index of a checksum.
      */
     public int findChecksumIndex(long hashf) {
-        if (!checksums.containsKey(hashf))
+        return toInt(findBlock(hashf));
+    }
+
+    /**
+     * Finds the block index of a checksum, or -1; supports indices beyond <code>int</code>.
+     */
+    public long findBlock(long hashf) {
+        long indexed = offHeap != null ? offHeap.get(hashf) : checksums.get(hashf);
+        return indexed == -1 ? -1 : indexed * stride;
+    }
+
+    /**
+     * Returns the previous block index with the same checksum as the block at
+     * <code>index</code>, or -1 if there is none or candidates are not chained.
+     */
+    public int nextChecksumIndex(int index) {
+        return toInt(nextBlock(index));
+    }
+
+    /**
+     * Returns the previous block index with the same checksum as the block at
+     * <code>index</code>, or -1; supports indices beyond <code>int</code>.
+     */
+    public long nextBlock(long index) {
+        long indexed;
+        if (offHeap != null)
+            indexed = offHeap.previous(index / stride);
+        else if (chain != null)
+            indexed = chain[(int) (index / stride)];
+        else
             return -1;
-        return checksums.get(hashf);
+        return indexed == -1 ? -1 : indexed * stride;
+    }
+
+    /**
+     * Returns the rolling hash of the checksums.
+     */
+    public RollingHash getRollingHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the distance between indexed blocks, 1 unless the index is sparse.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    private static int toInt(long index) {
+        if (index > Integer.MAX_VALUE)
+            throw new IllegalStateException("block index " + index + " needs findBlock");
+        return (int) index;
     }
 
     /**
@@ -151,7 +606,7 @@ public class Checksum {
     public String toString()
     {
         return super.toString() +
-            " checksums=" + (this.checksums) +
+            " checksums=" + (this.offHeap != null ? this.offHeap : this.checksums) +
             "";
     }
     
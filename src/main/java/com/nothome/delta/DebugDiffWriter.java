@@ -50,6 +50,11 @@ public class DebugDiffWriter implements DiffWriter {
         os.write(b);
         writeBuf();
     }
+
+    public void addData(byte[] b, int off, int len) {
+        os.write(b, off, len);
+        writeBuf();
+    }
     private void writeBuf() {
         System.err.print("DATA: ");
         byte[] ba = os.toByteArray();
@@ -38,21 +38,32 @@ package com.nothome.delta;
 
  import java.io.*;
  import java.nio.ByteBuffer;
- import java.nio.channels.Channels;
- import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.FileChannel;
  import java.nio.file.Files;
  import java.nio.file.Paths;
+ import java.util.ArrayList;
+ import java.util.Arrays;
+ import java.util.List;
+ import java.util.concurrent.Callable;
+ import java.util.concurrent.ExecutionException;
+ import java.util.concurrent.ForkJoinPool;
+ import java.util.concurrent.Future;
+ import java.util.concurrent.TimeUnit;
+ import java.util.concurrent.atomic.LongAdder;
 
  /**
  * Class for computing deltas against a source.
  * The source file is read by blocks and a hash is computed per block.
  * Then the target is scanned for matching blocks.
  * <p/>
- * This class is not thread safe. Use one instance per thread.
+ * This class is not thread safe. Use one instance per thread. An instance
+ * reuses its index tables and buffers from one compute to the next, see
+ * {@link #reset()}.
  * <p/>
- * This class should support files over 4GB in length, although you must
- * use a larger checksum size, such as 1K, as all checksums use "int" indexing.
- * Newer versions may eventually support paging in/out of checksums.
+ * This class supports files over 4GB in length. By default the checksums use
+ * "int" indexing on the heap, so very large sources need a larger checksum
+ * size, such as 1K; with {@link #setOffHeapIndex(boolean)} checksums are
+ * paged outside of the heap with "long" indexing.
  */
 public class Delta {
     
@@ -75,8 +86,104 @@ public class Delta {
      */
     private int S;
 
-    private TargetState target;
-    private DiffWriter output;
+    /**
+     * Number of candidate blocks tried per checksum hit.
+     */
+    private int maxCandidates = 1;
+
+    /**
+     * Pool for building the checksum index, or <code>null</code> to build it serially.
+     */
+    private ForkJoinPool indexPool;
+
+    /**
+     * Pool for scanning target segments, or <code>null</code> to scan serially.
+     */
+    private ForkJoinPool scanPool;
+    private int segmentSize;
+
+    /**
+     * Whether source files are memory-mapped.
+     */
+    private boolean mapFiles;
+
+    /**
+     * Whether the checksum index is kept off-heap.
+     */
+    private boolean offHeapIndex;
+    /**
+     * File the pages of the off-heap index are mapped from, or
+     * <code>null</code> for direct memory.
+     */
+    private FileChannel indexChannel;
+
+    /**
+     * Approximate memory budget of the checksum index in bytes, or 0 for none.
+     */
+    private long indexBudget;
+
+    /**
+     * Approximate size of one indexed block, for {@link #indexBudget}.
+     */
+    private static final int INDEX_ENTRY_BYTES = 32;
+
+    /**
+     * Most pending data bytes kept for extending matches backwards.
+     */
+    private static final int MAX_BACKWARD = 1 << 20;
+
+    /**
+     * Rolling hash of the checksum index.
+     */
+    private RollingHash rollingHash = RollingHash.ADLER32;
+
+    /**
+     * Checksum hits whose source bytes did not match, in the current compute.
+     */
+    private final LongAdder verificationFailures = new LongAdder();
+
+    /**
+     * Whether bytes common to the start and end of source and target are
+     * copied before scanning.
+     */
+    private boolean trimCommon;
+
+    /**
+     * Positions after a match checked for a longer one, 0 for greedy matching.
+     */
+    private int lookahead;
+
+    /**
+     * Whether matches are extended backwards over pending data bytes.
+     */
+    private boolean extendBackward;
+
+    /**
+     * Index and target state of the last compute, reused by the next one.
+     */
+    private Checksum recycled;
+    private TargetState recycledTarget;
+
+    /**
+     * Estimated patch size and time limits, 0 for none.
+     */
+    private long patchLimit;
+    private long timeLimit;
+
+    /**
+     * Enforces the limits in the current compute, or <code>null</code> if there are none.
+     */
+    private LimitedWriter limiter;
+
+    /**
+     * Receives the statistics of each compute, or <code>null</code>.
+     */
+    private DeltaListener listener;
+
+    /**
+     * Statistics of the current compute, <code>null</code> without a listener.
+     */
+    private DeltaStats stats;
     
     /**
      * Constructs a new Delta.
@@ -96,6 +203,198 @@ public class Delta {
             throw new IllegalArgumentException("Invalid size");
         S = size;
     }
+
+    /**
+     * Sets how many source blocks sharing a checksum are verified against the
+     * target before the longest match is chosen.
+     * The default of 1 only tries the last block with that checksum; larger
+     * values cost more time but create smaller patches for repetitive content.
+     */
+    public void setMaxCandidates(int depth) {
+        if (depth <= 0)
+            throw new IllegalArgumentException("Invalid depth");
+        maxCandidates = depth;
+    }
+
+    /**
+     * Sets the pool used to build the checksum index of in-memory sources
+     * (see {@link ByteBufferSeekableSource}) in parallel, or <code>null</code>
+     * to always build it serially.
+     * The resulting patches are the same either way.
+     */
+    public void setIndexPool(ForkJoinPool pool) {
+        indexPool = pool;
+    }
+
+    /**
+     * Sets the pool used to scan in-memory targets in segments of
+     * <code>segmentSize</code> bytes in parallel, or <code>null</code> to
+     * always scan serially.
+     * Matches may extend past the end of a segment. The segment patches are
+     * then joined, so the result is a valid patch, but not necessarily the
+     * same as the serial one.
+     *
+     * @see #doCompute(SyncPoolOutputStream, SyncPoolOutputStream, DiffWriter)
+     */
+    public void setScanPool(ForkJoinPool pool, int segmentSize) {
+        if (pool != null && segmentSize < S)
+            throw new IllegalArgumentException("Invalid segment size");
+        this.scanPool = pool;
+        this.segmentSize = segmentSize;
+    }
+    
+    /**
+     * Sets whether the checksum index is kept in an {@link OffHeapIndex}
+     * rather than on the Java heap. Use it for sources of several GB, which
+     * then also work with small chunk sizes.
+     * <p>
+     * The index is kept in direct memory, which is limited by
+     * <code>-XX:MaxDirectMemorySize</code>, by default the maximum heap
+     * size. Larger indexes can be kept in a file, see
+     * {@link #setOffHeapIndex(FileChannel)}.
+     */
+    public void setOffHeapIndex(boolean offHeap) {
+        this.offHeapIndex = offHeap;
+        this.indexChannel = null;
+    }
+
+    /**
+     * Keeps the checksum index in an {@link OffHeapIndex} whose pages are
+     * mapped from <code>channel</code>, such as a temporary file open for
+     * reading and writing, or in direct memory if <code>null</code>.
+     * The file is truncated and then grown as needed. It must stay open
+     * while this instance is used, and is not closed by it.
+     */
+    public void setOffHeapIndex(FileChannel channel) {
+        this.offHeapIndex = true;
+        this.indexChannel = channel;
+    }
+
+    /**
+     * Sets an approximate memory budget in bytes for the checksum index of
+     * sources of known length, or 0 for none.
+     * If indexing every block would take more, only every k-th block is
+     * indexed, and matches found from those blocks are also extended
+     * backwards over the preceding data bytes. This uses predictable memory
+     * at the cost of somewhat larger patches.
+     */
+    public void setIndexBudget(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Invalid budget");
+        indexBudget = bytes;
+    }
+
+    /**
+     * Sets the rolling hash used for the checksum index, by default
+     * {@link RollingHash#ADLER32}. A 64 bit hash such as
+     * {@link RollingHash#RABIN_KARP64} produces fewer false hits on large
+     * sources; the patches stay valid either way, but differ slightly.
+     * Deltas against a {@link SourceSignature} always use the hash of the signature.
+     *
+     * @see #getVerificationFailures()
+     */
+    public void setRollingHash(RollingHash hash) {
+        if (hash == null)
+            throw new IllegalArgumentException("Invalid hash");
+        rollingHash = hash;
+    }
+
+    /**
+     * Returns the number of checksum hits in the last compute whose source
+     * bytes turned out not to match the target, for comparing the
+     * {@link #setRollingHash(RollingHash) rolling hashes}. Each costs a
+     * source read for nothing.
+     */
+    public long getVerificationFailures() {
+        return verificationFailures.sum();
+    }
+
+    /**
+     * Sets whether the bytes the source and target have in common at the
+     * start, and for in-memory targets at the end, are copied directly
+     * before the rest is scanned. Small edits to large inputs then cost
+     * little more than comparing them, but the patch may differ from the
+     * one computed without trimming.
+     */
+    public void setTrimCommon(boolean trim) {
+        trimCommon = trim;
+    }
+
+    /**
+     * Sets how many positions after a match are checked for a longer match
+     * before it is taken, like lazy matching in zlib. If a match starting
+     * <i>d</i> bytes later is longer by more than <i>d</i> bytes, the byte
+     * is output as data instead. The default of 0 takes the first match.
+     * A few positions give fewer, longer copies for some more time.
+     */
+    public void setLookahead(int positions) {
+        if (positions < 0)
+            throw new IllegalArgumentException("Invalid lookahead");
+        lookahead = positions;
+    }
+
+    /**
+     * Sets whether each match is extended backwards over the data bytes
+     * before it that also match the source, which are then copied too.
+     * Shifted content then takes one copy instead of data and a copy.
+     * A match is extended by at most the chunk size times the stride of the
+     * index, the pending data a stream scan keeps.
+     * This is always done for a sparse index, see {@link #setIndexBudget(long)}.
+     */
+    public void setExtendBackward(boolean extend) {
+        extendBackward = extend;
+    }
+
+    /**
+     * Sets the most bytes a patch may take, or 0 for no limit. The size is
+     * estimated from the instructions as they are found, and computing fails
+     * with a {@link LimitExceededException} as soon as it exceeds the limit,
+     * leaving an incomplete patch. Use it to give up early on targets that
+     * would be better stored whole.
+     */
+    public void setPatchLimit(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Invalid limit");
+        patchLimit = bytes;
+    }
+
+    /**
+     * Sets the most time a compute may take, or 0 for no limit. Computing
+     * fails with a {@link LimitExceededException} once it is exceeded.
+     */
+    public void setTimeLimit(long time, TimeUnit unit) {
+        if (time < 0)
+            throw new IllegalArgumentException("Invalid limit");
+        timeLimit = unit.toNanos(time);
+    }
+
+    /**
+     * Sets the listener that receives the statistics of each compute, or
+     * <code>null</code> for none, the default. Statistics are only gathered
+     * while a listener is set.
+     */
+    public void setListener(DeltaListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Releases the index tables and buffers kept from the last compute.
+     * They are otherwise reused by the next compute, so that computing many
+     * small deltas allocates little.
+     */
+    public void reset() {
+        recycled = null;
+        recycledTarget = null;
+    }
+
+    /**
+     * Sets whether {@link #compute(File, File, DiffWriter)} reads the source
+     * file through a {@link MappedFileSeekableSource} rather than a
+     * {@link RandomAccessFileSeekableSource}.
+     */
+    public void setMapFiles(boolean mapFiles) {
+        this.mapFiles = mapFiles;
+    }
     
     /**
      * Compares the source bytes with target bytes, writing to output.
@@ -138,7 +437,7 @@ public class Delta {
     @Deprecated // deprecation - unexpected output.close()
     public void compute(File sourceFile, File targetFile, DiffWriter output)
     throws IOException {
-        try (RandomAccessFileSeekableSource source = new RandomAccessFileSeekableSource(new RandomAccessFile(sourceFile, "r")); InputStream is = new BufferedInputStream(Files.newInputStream(targetFile.toPath()))) {
+        try (SeekableSource source = mapFiles ? new MappedFileSeekableSource(sourceFile) : new RandomAccessFileSeekableSource(new RandomAccessFile(sourceFile, "r")); InputStream is = new BufferedInputStream(Files.newInputStream(targetFile.toPath()))) {
             compute(source, is, output);
         }
     }
@@ -160,63 +459,418 @@ public class Delta {
             debug("using match length S = " + S);
         }
 
+        output = begin(output);
         SourceState source = new SourceState(seekSource);
-        target = new TargetState(targetIS);
-        this.output = output;
         if (debug)
             debug("checksums " + source.checksum);
+        TargetState target = targetState(targetIS, source);
+        if (trimCommon)
+            trimPrefix(source, target, output);
+        scan(source, target, output, Long.MAX_VALUE);
+        recycle(source, target);
+        end(output);   // XDeltaWrapper - don't close the stream
+    }
+
+    /**
+     * Compares the source with a target, using a signature computed earlier
+     * from that source instead of reading the source to build the index.
+     * Writes to output without closing it.
+     *
+     * @throws IllegalArgumentException if the signature was computed with
+     * another chunk size
+     * @throws IOException if the signature does not fit the source
+     */
+    public void doCompute(SourceSignature signature, SeekableSource seekSource, InputStream targetIS, DiffWriter output)
+    throws IOException {
+        if (signature.getChunkSize() != S)
+            throw new IllegalArgumentException("signature chunk size " + signature.getChunkSize() + ", expected " + S);
+        long length = seekSource.length();
+        if (length >= 0 && length / S != signature.getBlockCount())
+            throw new IOException("signature of " + signature.getLength() + " bytes does not match source of " + length);
+        output = begin(output);
+        long start = stats != null ? System.nanoTime() : 0;
+        SourceState source = new SourceState(new Checksum(signature, maxCandidates > 1), seekSource);
+        if (stats != null) {
+            stats.indexNanos += System.nanoTime() - start;
+            stats.indexedBytes += (long) signature.getBlockCount() * S;
+        }
+        TargetState target = targetState(targetIS, source);
+        if (trimCommon)
+            trimPrefix(source, target, output);
+        scan(source, target, output, Long.MAX_VALUE);
+        recycle(source, target);
+        end(output);
+    }
+
+    /**
+     * Starts a compute, returning <code>output</code> wrapped to gather
+     * statistics and enforce the limits as configured.
+     */
+    private DiffWriter begin(DiffWriter output) {
+        verificationFailures.reset();
+        stats = null;
+        if (listener != null) {
+            stats = new DeltaStats();
+            stats.totalNanos = System.nanoTime();
+            output = new StatsWriter(output, stats);
+        }
+        limiter = patchLimit == 0 && timeLimit == 0 ? null : new LimitedWriter(output, patchLimit, timeLimit);
+        return limiter != null ? limiter : output;
+    }
+
+    /**
+     * Ends the output of a compute and reports its statistics.
+     */
+    private void end(DiffWriter output) throws IOException {
+        output.end();
+        if (stats != null) {
+            DeltaStats done = stats;
+            stats = null;
+            done.computes = 1;
+            done.falsePositives = verificationFailures.sum();
+            done.totalNanos = System.nanoTime() - done.totalNanos;
+            listener.computed(done);
+        }
+    }
+
+    /**
+     * Returns the target state of the last compute reset for this one, or a new one.
+     */
+    private TargetState targetState(InputStream targetIS, SourceState source) {
+        TargetState target = recycledTarget;
+        recycledTarget = null;
+        if (target == null || !target.reset(targetIS, source))
+            target = new TargetState(targetIS, source);
+        return target;
+    }
+
+    private void recycle(SourceState source, TargetState target) {
+        recycled = source.checksum;
+        recycledTarget = target;
+    }
 
-        while (!target.eof()) {
+    /**
+     * Copies the start of the target that matches the start of the source.
+     */
+    private void trimPrefix(SourceState source, TargetState target, DiffWriter output) throws IOException {
+        int prefix = target.commonPrefix(source);
+        if (prefix >= S || target.tbuf.position() < prefix) {
+            if (debug)
+                debug("prefix " + prefix);
+            output.addCopy(0, prefix);
+        } else {
+            // too short to copy, scan it instead
+            target.tbuf.position(target.tbuf.position() - prefix);
+        }
+    }
+
+    /**
+     * Scans the target until <code>limit</code> bytes are consumed.
+     * The last match may extend beyond <code>limit</code>.
+     */
+    private void scan(SourceState source, TargetState target, DiffWriter output, long limit) throws IOException {
+        while (!target.eof() && target.position() < limit) {
             debug("!target.eof()");
-            int index = target.find(source);
+            long index = target.find(source);
             if (index != -1) {
+                if (maxCandidates > 1)
+                    index = target.bestCandidate(source, index);
+                else if (stats != null)
+                    stats.candidates++;
+                if (lookahead > 0 && target.laterMatchIsLonger(source, index)) {
+                    addData(target, output);
+                    continue;
+                }
                 if (debug)
                     debug("found hash " + index);
-                long offset = (long)index * S;
+                long offset = index * S;
                 source.seek(offset);
                 int match = target.longestMatch(source);
                 if (match >= S) {
+                    if (source.backward() > 0) {
+                        int back = target.extendBack(source, offset, Integer.MAX_VALUE - match);
+                        offset -= back;
+                        match += back;
+                    }
                     if (debug)
                         debug("output.addCopy("+offset+","+match+")");
+                    target.flushData(output);
                     output.addCopy(offset, match);
                 } else {
+                    verificationFailures.increment();
                     // move the position back according to how much we can't copy
                     target.tbuf.position(target.tbuf.position() - match);
-                    addData();
+                    addData(target, output);
                 }
             } else {
-                addData();
+                addData(target, output);
             }
         }
-        output.end();   // XDeltaWrapper - don't close the stream
+        target.flushData(output);
+        if (debug)
+            debug("verification failures (" + source.checksum.getRollingHash() + ") " + verificationFailures);
     }
 
+    /**
+     * Compares the source with a target, writing to output without closing it.
+     * If both buffers are held in a single array, they are compared directly
+     * (see {@link #doCompute(byte[], int, int, byte[], int, int, DiffWriter)}),
+     * in parallel segments if a scan pool is set.
+     *
+     * @see #setScanPool(ForkJoinPool, int)
+     */
     public void doCompute(SyncPoolOutputStream sourceBuf, SyncPoolOutputStream targetBuf, DiffWriter output) throws IOException {
-        doCompute(sourceBuf.makeSeekableSource(), targetBuf.makeInputStream(), output);
+        SeekableSource source = sourceBuf.makeSeekableSource();
+        SeekableSource target = targetBuf.makeSeekableSource();
+        if (source instanceof ByteBufferSeekableSource && target instanceof ByteBufferSeekableSource) {
+            ByteBuffer sb = ((ByteBufferSeekableSource) source).buffer();
+            ByteBuffer tb = ((ByteBufferSeekableSource) target).buffer();
+            if (sb.hasArray() && tb.hasArray()) {
+                doCompute(sb.array(), sb.arrayOffset(), sb.remaining(),
+                        tb.array(), tb.arrayOffset(), tb.remaining(), output);
+                return;
+            }
+        }
+        doCompute(source, targetBuf.makeInputStream(), output);
     }
-    
-    private void addData() throws IOException {
+
+    /**
+     * Compares the source bytes with target bytes, writing to output without closing it.
+     */
+    public void doCompute(byte[] source, byte[] target, DiffWriter output) throws IOException {
+        doCompute(source, 0, source.length, target, 0, target.length, output);
+    }
+
+    /**
+     * Compares a range of source bytes with a range of target bytes, writing
+     * to output without closing it. Copy offsets are relative to
+     * <code>sourceOffset</code>.
+     * <p>
+     * Hashing, lookups and match extension work directly on the arrays, but
+     * the patch is the same as the one computed from streams over these ranges.
+     * If a scan pool is set, the target is scanned in parallel segments instead.
+     * If trimming is set, only the part between the common prefix and suffix
+     * is scanned.
+     * If the output supports target copies (see {@link DiffWriter#getTargetWindow()}),
+     * target content repeated within the window is copied from the target as well.
+     *
+     * @see #setTrimCommon(boolean)
+     */
+    public void doCompute(byte[] source, int sourceOffset, int sourceLength,
+            byte[] target, int targetOffset, int targetLength, DiffWriter output) throws IOException {
+        if ((sourceOffset | sourceLength) < 0 || sourceLength > source.length - sourceOffset
+                || (targetOffset | targetLength) < 0 || targetLength > target.length - targetOffset)
+            throw new IndexOutOfBoundsException();
+        if (debug) {
+            debug("using match length S = " + S);
+        }
+
+        output = begin(output);
+        int prefix = 0;
+        int suffix = 0;
+        if (trimCommon) {
+            prefix = ArrayMatch.commonPrefix(source, sourceOffset, sourceOffset + sourceLength,
+                    target, targetOffset, targetOffset + targetLength);
+            suffix = ArrayMatch.commonSuffix(source, sourceOffset, sourceOffset + sourceLength,
+                    target, targetOffset + prefix, targetOffset + targetLength);
+            if (prefix < S)
+                prefix = 0;
+            if (suffix < S)
+                suffix = 0;
+            if (debug)
+                debug("prefix " + prefix + " suffix " + suffix);
+        }
+        if (prefix > 0)
+            output.addCopy(0, prefix);
+        int middle = targetLength - prefix - suffix;
+        if (middle < S) {
+            if (middle > 0)
+                output.addData(target, targetOffset + prefix, middle);
+        } else {
+            Checksum checksum = checksum(new ByteBufferSeekableSource(
+                    ByteBuffer.wrap(source, sourceOffset, sourceLength).slice()));
+            ArrayScan scan = new ArrayScan(checksum, source, sourceOffset, sourceLength,
+                    target, targetOffset, targetLength - suffix, output.getTargetWindow());
+            if (scanPool != null && middle > segmentSize)
+                scanSegments(scan, prefix, output);
+            else
+                scan.scan(prefix, targetLength - suffix, output);
+            recycled = checksum;
+        }
+        if (suffix > 0)
+            output.addCopy(sourceLength - suffix, suffix);
+        end(output);
+    }
+
+    /**
+     * Scans the target from <code>from</code> in parallel segments.
+     */
+    private void scanSegments(final ArrayScan scan, int from, DiffWriter output) throws IOException {
+        final int length = scan.targetLength;
+        List<Callable<Segment>> tasks = new ArrayList<>();
+        for (long start = from; start < length; start += segmentSize) {
+            final int segmentFrom = (int) start;
+            final int to = (int) Math.min(start + segmentSize, length);
+            tasks.add(new Callable<Segment>() {
+                public Segment call() throws IOException {
+                    Segment segment = new Segment(segmentFrom);
+                    scan.scan(segmentFrom, to, segment);
+                    return segment;
+                }
+            });
+        }
+        long covered = from;
+        long copyOffset = 0;
+        int copyLength = 0;
+        for (Future<Segment> f : scanPool.invokeAll(tasks)) {
+            Segment segment = join(f);
+            for (int i = 0; i < segment.size; i += 2) {
+                long op = segment.ops[i];
+                int len = (int) segment.ops[i + 1];
+                long pos = segment.positions[i >> 1];
+                if (pos + len <= covered)
+                    continue;
+                int skip = (int) Math.max(covered - pos, 0);
+                if (op >= 0 && len - skip >= S) {
+                    long offset = op + skip;
+                    if (copyLength > 0 && copyOffset + copyLength == offset
+                            && copyLength <= Integer.MAX_VALUE - (len - skip)) {
+                        copyLength += len - skip;
+                    } else {
+                        if (copyLength > 0)
+                            output.addCopy(copyOffset, copyLength);
+                        copyOffset = offset;
+                        copyLength = len - skip;
+                    }
+                } else {
+                    if (copyLength > 0) {
+                        output.addCopy(copyOffset, copyLength);
+                        copyLength = 0;
+                    }
+                    if (op <= -2 && len - skip >= S)
+                        output.addTargetCopy(-2 - op + skip, len - skip);
+                    else
+                        output.addData(scan.target, scan.targetOffset + (int) pos + skip, len - skip);
+                }
+                covered = pos + len;
+            }
+        }
+        if (copyLength > 0)
+            output.addCopy(copyOffset, copyLength);
+    }
+
+    private static Segment join(Future<Segment> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Builds the checksum index of a source as configured.
+     */
+    private Checksum checksum(SeekableSource source) throws IOException {
+        long start = stats != null ? System.nanoTime() : 0;
+        Checksum previous = recycled;
+        recycled = null;
+        boolean chained = maxCandidates > 1;
+        long length = source.length();
+        int stride = stride(length);
+        Checksum checksum;
+        if (offHeapIndex)
+            checksum = new Checksum(source, S, chained, indexChannel, stride, rollingHash, previous);
+        else if (indexPool != null && source instanceof ByteBufferSeekableSource)
+            checksum = new Checksum(((ByteBufferSeekableSource) source).buffer(), S, chained, indexPool, stride, rollingHash, previous);
+        else
+            checksum = new Checksum(source, S, chained, stride, rollingHash, previous);
+        if (stats != null) {
+            stats.indexNanos += System.nanoTime() - start;
+            stats.indexedBytes += Math.max(length, 0) / S * S;
+        }
+        return checksum;
+    }
+
+    /**
+     * Returns the distance between indexed blocks that keeps the index of a
+     * source of <code>length</code> bytes within the budget.
+     */
+    private int stride(long length) {
+        if (indexBudget == 0 || length <= 0)
+            return 1;
+        long blocks = length / S;
+        long entries = Math.max(indexBudget / INDEX_ENTRY_BYTES, 1);
+        return (int) Math.min(Math.max((blocks + entries - 1) / entries, 1), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns how many pending data bytes a match found with
+     * <code>checksum</code> may be extended backwards over; 0 unless enabled
+     * or the index is sparse.
+     */
+    private int backward(Checksum checksum) {
+        int stride = checksum.getStride();
+        if (stride == 1 && !extendBackward)
+            return 0;
+        return (int) Math.min((long) stride * S, MAX_BACKWARD);
+    }
+
+    private void addData(TargetState target, DiffWriter output) throws IOException {
         int i = target.read();
         if (debug)
             debug("addData " + Integer.toHexString(i));
         if (i == -1)
             return;
-        output.addData((byte)i);
+        if (target.dataLength == target.data.length)
+            target.flushData(output, target.keep);
+        target.data[target.dataLength++] = (byte)i;
     }
     
     class SourceState {
 
         private final Checksum checksum;
         private final SeekableSource source;
+        /**
+         * Position of the next {@link #read(ByteBuffer)}.
+         */
+        private long pos;
         
+        SourceState(Checksum checksum, SeekableSource source) {
+            this.checksum = checksum;
+            this.source = source;
+        }
+
         public SourceState(SeekableSource source) throws IOException {
-            checksum = new Checksum(source, S);
+            checksum = checksum(source);
             this.source = source;
             source.seek(0);
         }
 
-        public void seek(long index) throws IOException {
-            source.seek(index);
+        public void seek(long index) {
+            pos = index;
+        }
+
+        /**
+         * Returns how many pending data bytes a match may be extended
+         * backwards over; 0 unless enabled or the index is sparse.
+         */
+        public int backward() {
+            return Delta.this.backward(checksum);
+        }
+
+        /**
+         * Reads from the current position with {@link SeekableSource#read(long, ByteBuffer)}.
+         */
+        public int read(ByteBuffer bb) throws IOException {
+            int read = source.read(pos, bb);
+            if (read > 0)
+                pos += read;
+            return read;
         }
 
         /**
@@ -232,19 +886,468 @@ public class Delta {
         }
         
     }
+
+    /**
+     * Scans target bytes against source bytes held in arrays.
+     * Follows {@link #scan(SourceState, TargetState, DiffWriter, long)} step
+     * by step, including the window used to choose between candidates, so
+     * the resulting patch is the same.
+     * Only reads shared state, so one instance can scan several ranges at once.
+     */
+    class ArrayScan {
+
+        private final Checksum checksum;
+        private final byte[] source;
+        private final int sourceOffset;
+        private final int sourceEnd;
+        private final byte[] target;
+        private final int targetOffset;
+        private final int targetLength;
+        /**
+         * Window of target copies, 0 for none.
+         */
+        private final int targetWindow;
+
+        ArrayScan(Checksum checksum, byte[] source, int sourceOffset, int sourceLength,
+                byte[] target, int targetOffset, int targetLength, int targetWindow) {
+            this.checksum = checksum;
+            this.source = source;
+            this.sourceOffset = sourceOffset;
+            this.sourceEnd = sourceOffset + sourceLength;
+            this.target = target;
+            this.targetOffset = targetOffset;
+            this.targetLength = targetLength;
+            this.targetWindow = targetWindow;
+        }
+
+        /**
+         * Scans the target from <code>from</code> until <code>limit</code>
+         * bytes are consumed; the last match may extend beyond it.
+         */
+        public void scan(int from, int limit, DiffWriter output) throws IOException {
+            final byte[] target = this.target;
+            final int end = targetOffset + targetLength;
+            final int window = Math.min(1024 * 16, S * 4);  // TargetState.blocksize()
+            int p = targetOffset + from;
+            int data = p;   // start of pending data
+            limit += targetOffset;
+            // bytes a match may be extended backwards over, as the stream
+            // keeps no more pending data than that
+            final int backward = backward(checksum);
+            final RollingHash rolling = checksum.getRollingHash();
+            final RollingHash.Roller roller = rolling.roller(S);
+            // target blocks scanned so far, if copying from the target
+            final LongIntHashMap targetIndex = targetWindow > 0 ? new LongIntHashMap() : null;
+            int indexed = p;    // start of the next target block to index
+            long hash = 0;
+            boolean hashReset = true;
+            // counted apart, since segments are scanned at once
+            final DeltaStats probes = stats != null ? new DeltaStats() : null;
+            while (p < limit) {
+                if (p > end - S) {
+                    p++;
+                    continue;
+                }
+                if (hashReset) {
+                    hash = rolling.hash(target, p, S);
+                    hashReset = false;
+                }
+                int index = checksum.findChecksumIndex(hash);
+                if (probes != null)
+                    probes.lookups++;
+                if (index != -1) {
+                    if (maxCandidates > 1)
+                        index = bestCandidate(index, p, Math.min(window, end - p), probes);
+                    else if (probes != null)
+                        probes.candidates++;
+                    int offset = index * S;
+                    int match = matchLength(sourceOffset + offset, p);
+                    hashReset = true;
+                    if (match >= S && lookahead > 0
+                            && laterMatchIsLonger(p, Math.min(window, end - p), rolling, index, probes)) {
+                        // take a longer match later
+                        byte b = target[p++];
+                        if (p <= end - S)
+                            hash = roller.roll(hash, b, target[p + S - 1]);
+                        continue;
+                    }
+                    if (match >= S) {
+                        if (backward > 0) {
+                            int pending = Math.min(p - data, backward);
+                            int back = ArrayMatch.commonSuffix(
+                                    source, sourceOffset + Math.max(offset - pending, 0), sourceOffset + offset,
+                                    target, p - pending, p);
+                            offset -= back;
+                            p -= back;
+                            match += back;
+                        }
+                        if (p > data)
+                            output.addData(target, data, p - data);
+                        output.addCopy(offset, match);
+                        p += match;
+                        data = p;
+                        continue;
+                    }
+                    verificationFailures.increment();
+                }
+                if (targetIndex != null) {
+                    for (indexed = Math.max(indexed, p - targetWindow); indexed <= p - S; indexed += S)
+                        targetIndex.put(rolling.hash(target, indexed, S), indexed - targetOffset);
+                    int t = targetIndex.get(hash);
+                    if (t != LongIntHashMap.NO_VALUE && p - targetOffset - t <= targetWindow) {
+                        int match = ArrayMatch.commonPrefix(target, targetOffset + t, end, target, p, end);
+                        if (match >= S) {
+                            hashReset = true;
+                            if (backward > 0) {
+                                int pending = Math.min(p - data, backward);
+                                int back = ArrayMatch.commonSuffix(
+                                        target, targetOffset + Math.max(t - pending, 0), targetOffset + t,
+                                        target, p - pending, p);
+                                t -= back;
+                                p -= back;
+                                match += back;
+                            }
+                            if (p > data)
+                                output.addData(target, data, p - data);
+                            output.addTargetCopy(t, match);
+                            p += match;
+                            data = p;
+                            continue;
+                        }
+                        verificationFailures.increment();
+                    }
+                }
+                byte b = target[p++];
+                if (p <= end - S)
+                    hash = roller.roll(hash, b, target[p + S - 1]);
+                if ((p & 0xfff) == 0 && limiter != null)
+                    limiter.check(p - data);
+            }
+            if (p > data)
+                output.addData(target, data, p - data);
+            if (probes != null)
+                stats.addProbes(probes);
+        }
+
+        /**
+         * Returns the candidate block, starting from <code>index</code>, whose
+         * source bytes agree longest with the <code>window</code> target bytes at <code>p</code>.
+         */
+        private int bestCandidate(int index, int p, int window, DeltaStats probes) {
+            int best = index;
+            int bestMatch = -1;
+            for (int depth = 0; index != -1 && depth < maxCandidates; depth++) {
+                if (probes != null)
+                    probes.candidates++;
+                int match = windowMatch(sourceOffset + index * S, p, window);
+                if (match > bestMatch) {
+                    best = index;
+                    bestMatch = match;
+                    if (match == window)
+                        break;
+                }
+                index = checksum.nextChecksumIndex(index);
+            }
+            return best;
+        }
+
+        /**
+         * Returns whether a match within {@link #lookahead} bytes after
+         * <code>p</code> is longer than that of the block at
+         * <code>index</code>, by more than the bytes skipped. Matches are
+         * compared within the <code>window</code> target bytes at
+         * <code>p</code>, as the stream scan only sees its buffer.
+         */
+        private boolean laterMatchIsLonger(int p, int window, RollingHash rolling, int index, DeltaStats probes) {
+            int match = windowMatch(sourceOffset + index * S, p, window);
+            for (int d = 1; d <= lookahead && d <= window - S; d++) {
+                int later = checksum.findChecksumIndex(rolling.hash(target, p + d, S));
+                if (probes != null) {
+                    probes.lookups++;
+                    if (later != -1)
+                        probes.candidates++;
+                }
+                if (later != -1 && windowMatch(sourceOffset + later * S, p + d, window - d) > match + d)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the match length at source offset <code>s</code> and target
+         * offset <code>t</code>, up to <code>window</code> bytes.
+         */
+        private int windowMatch(int s, int t, int window) {
+            return ArrayMatch.commonPrefix(source, s, Math.min(sourceEnd, s + window), target, t, t + window);
+        }
+
+        private int matchLength(int s, int t) {
+            return ArrayMatch.commonPrefix(source, s, sourceEnd, target, t, targetOffset + targetLength);
+        }
+
+    }
+
+    /**
+     * Passes instructions on while estimating the size of the GDIFF patch,
+     * and checks the limits.
+     */
+    private static class LimitedWriter implements DiffWriter {
+
+        private final DiffWriter output;
+        private final long limit;
+        private final long deadline;
+        private final boolean timed;
+        /**
+         * Estimated patch size so far.
+         */
+        private long size;
+
+        LimitedWriter(DiffWriter output, long limit, long time) {
+            this.output = output;
+            this.limit = limit == 0 ? Long.MAX_VALUE : limit;
+            this.timed = time != 0;
+            this.deadline = System.nanoTime() + time;
+        }
+
+        /**
+         * Throws if the patch with <code>pending</code> more data bytes, or
+         * the time taken, exceeds the limits.
+         */
+        void check(long pending) throws LimitExceededException {
+            if (size + pending > limit)
+                throw new LimitExceededException("patch exceeds " + limit + " bytes");
+            if (timed && System.nanoTime() - deadline > 0)
+                throw new LimitExceededException("time limit exceeded");
+        }
+
+        public void addCopy(long offset, int length) throws IOException {
+            size += copySize(offset, length);
+            check(0);
+            output.addCopy(offset, length);
+        }
+
+        public void addTargetCopy(long offset, int length) throws IOException {
+            size += copySize(offset, length);
+            check(0);
+            output.addTargetCopy(offset, length);
+        }
+
+        public int getTargetWindow() {
+            return output.getTargetWindow();
+        }
+
+        public void addData(byte b) throws IOException {
+            size++;
+            check(0);
+            output.addData(b);
+        }
+
+        public void addData(byte[] b, int off, int len) throws IOException {
+            size += 1 + len;
+            check(0);
+            output.addData(b, off, len);
+        }
+
+        /**
+         * Returns the size of a GDIFF copy instruction, see {@link GDiffWriter}.
+         */
+        private static int copySize(long offset, int length) {
+            return 1 + (offset < 65536 ? 2 : offset <= Integer.MAX_VALUE ? 4 : 8)
+                    + (length < 256 ? 1 : length < 65536 ? 2 : 4);
+        }
+
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        public void close() throws IOException {
+            output.close();
+        }
+
+        public void end() throws IOException {
+            output.end();
+        }
+
+    }
+
+    /**
+     * Passes instructions on while counting them and the time spent in the output.
+     */
+    private static class StatsWriter implements DiffWriter {
+
+        private final DiffWriter output;
+        private final DeltaStats stats;
+
+        StatsWriter(DiffWriter output, DeltaStats stats) {
+            this.output = output;
+            this.stats = stats;
+        }
+
+        public void addCopy(long offset, int length) throws IOException {
+            stats.copies++;
+            stats.copyBytes += length;
+            long start = System.nanoTime();
+            output.addCopy(offset, length);
+            stats.writeNanos += System.nanoTime() - start;
+        }
+
+        public void addTargetCopy(long offset, int length) throws IOException {
+            stats.targetCopies++;
+            stats.targetCopyBytes += length;
+            long start = System.nanoTime();
+            output.addTargetCopy(offset, length);
+            stats.writeNanos += System.nanoTime() - start;
+        }
+
+        public int getTargetWindow() {
+            return output.getTargetWindow();
+        }
+
+        public void addData(byte b) throws IOException {
+            stats.dataRuns++;
+            stats.dataBytes++;
+            long start = System.nanoTime();
+            output.addData(b);
+            stats.writeNanos += System.nanoTime() - start;
+        }
+
+        public void addData(byte[] b, int off, int len) throws IOException {
+            stats.dataRuns++;
+            stats.dataBytes += len;
+            long start = System.nanoTime();
+            output.addData(b, off, len);
+            stats.writeNanos += System.nanoTime() - start;
+        }
+
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            output.flush();
+            stats.writeNanos += System.nanoTime() - start;
+        }
+
+        public void close() throws IOException {
+            output.close();
+        }
+
+        public void end() throws IOException {
+            long start = System.nanoTime();
+            output.end();
+            stats.writeNanos += System.nanoTime() - start;
+        }
+
+    }
+
+    /**
+     * Records the instructions for one segment of the target, as pairs of
+     * (source offset, length) for copies, (-1, length) for data and
+     * (-2 - target offset, length) for target copies.
+     */
+    private static class Segment implements DiffWriter {
+
+        private long[] ops = new long[32];
+        private long[] positions = new long[16];
+        private int size;
+        private long pos;
+
+        Segment(long start) {
+            pos = start;
+        }
+
+        public void addCopy(long offset, int length) {
+            add(offset, length);
+        }
+
+        public void addTargetCopy(long offset, int length) {
+            add(-2 - offset, length);
+        }
+
+        public void addData(byte b) {
+            addData(null, 0, 1);
+        }
+
+        public void addData(byte[] b, int off, int len) {
+            if (size > 0 && ops[size - 2] == -1) {
+                ops[size - 1] += len;
+                pos += len;
+            } else {
+                add(-1, len);
+            }
+        }
+
+        private void add(long op, int length) {
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                positions = Arrays.copyOf(positions, size);
+            }
+            positions[size >> 1] = pos;
+            ops[size++] = op;
+            ops[size++] = length;
+            pos += length;
+        }
+
+        public void flush() {}
+
+        public void close() {}
+
+    }
         
     class TargetState {
         
-        private final ReadableByteChannel c;
+        private InputStream in;
+        private RollingHash rolling;
+        private RollingHash.Roller roller;
         private final ByteBuffer tbuf = ByteBuffer.allocate(blocksize());
         private final ByteBuffer sbuf = ByteBuffer.allocate(blocksize());
         private long hash;
         private boolean hashReset = true;
         private boolean eof;
+        /**
+         * Bytes read from the stream so far.
+         */
+        private long filled;
+        /**
+         * Data bytes not yet passed to the output.
+         */
+        private final byte[] data;
+        private int dataLength;
+        /**
+         * Data bytes held back when the data is flushed early, see {@link SourceState#backward()}.
+         */
+        private int keep;
+        /**
+         * Source bytes before a match, for {@link #extendBack}.
+         */
+        private ByteBuffer back;
         
-        TargetState(InputStream targetIS) {
-            c = Channels.newChannel(targetIS);
-            tbuf.limit(0);
+        /**
+         * Scans with the rolling hash of the source, keeping enough pending
+         * data bytes for its {@link SourceState#backward()}.
+         */
+        TargetState(InputStream targetIS, SourceState source) {
+            data = new byte[Math.max(blocksize(), 2 * source.backward())];
+            reset(targetIS, source);
+        }
+
+        /**
+         * Prepares to scan another target, keeping the buffers.
+         *
+         * @return false if the buffers do not fit the current settings
+         */
+        boolean reset(InputStream targetIS, SourceState source) {
+            int keep = source.backward();
+            if (tbuf.capacity() != blocksize() || data.length < Math.max(blocksize(), 2 * keep))
+                return false;
+            this.keep = keep;
+            rolling = source.checksum.getRollingHash();
+            roller = rolling.roller(S);
+            in = targetIS;
+            tbuf.clear().limit(0);
+            sbuf.clear();
+            hashReset = true;
+            eof = false;
+            filled = 0;
+            dataLength = 0;
+            return true;
         }
         
         private int blocksize() {
@@ -254,7 +1357,7 @@ public class Delta {
         /**
          * Returns the index of the next N bytes of the stream.
          */
-        public int find(SourceState source) throws IOException {
+        public long find(SourceState source) throws IOException {
             if (eof)
                 return -1;
             sbuf.clear();
@@ -263,25 +1366,80 @@ public class Delta {
                 debug("hashReset");
                 while (tbuf.remaining() < S) {
                     tbuf.compact();
-                    int read = c.read(tbuf);
+                    int read = fill();
                     tbuf.flip();
                     if (read == -1) {
                         debug("target ending");
                         return -1;
                     }
+                    filled += read;
                 }
-                hash = Checksum.queryChecksum(tbuf, S);
+                tbuf.mark();
+                hash = rolling.hash(tbuf, S);
+                tbuf.reset();
                 hashReset = false;
             }
             if (debug)
                 debug("hash " + hash + " " + dump());
-            return source.checksum.findChecksumIndex(hash);
+            if (stats != null)
+                stats.lookups++;
+            return source.checksum.findBlock(hash);
         }
 
         public boolean eof() {
             return eof;
         }
 
+        /**
+         * Passes pending data bytes to the output as one run.
+         */
+        public void flushData(DiffWriter output) throws IOException {
+            flushData(output, 0);
+        }
+
+        /**
+         * Passes all but the last <code>keep</code> pending data bytes to the output.
+         */
+        public void flushData(DiffWriter output, int keep) throws IOException {
+            int n = dataLength - keep;
+            if (n > 0) {
+                output.addData(data, 0, n);
+                System.arraycopy(data, n, data, 0, keep);
+                dataLength = keep;
+            }
+        }
+
+        /**
+         * Extends a match at the source offset backwards over pending data
+         * bytes, by at most <code>max</code> bytes and
+         * {@link SourceState#backward()}. The bytes covered are removed from
+         * the pending data.
+         *
+         * @return the number of bytes the match was extended by
+         */
+        public int extendBack(SourceState source, long offset, int max) throws IOException {
+            int n = (int) Math.min(Math.min(dataLength, offset), Math.min(max, source.backward()));
+            if (n == 0)
+                return 0;
+            if (back == null)
+                back = ByteBuffer.allocate(data.length);
+            back.clear().limit(n);
+            while (back.hasRemaining()) {
+                if (source.source.read(offset - n + back.position(), back) == -1)
+                    return 0;
+            }
+            int m = ArrayMatch.commonSuffix(back.array(), 0, n, data, dataLength - n, dataLength);
+            dataLength -= m;
+            return m;
+        }
+
+        /**
+         * Returns the number of target bytes consumed.
+         */
+        public long position() {
+            return filled - tbuf.remaining();
+        }
+
         /**
          * Reads a byte.
          */
@@ -296,13 +1454,101 @@ public class Delta {
             byte b = tbuf.get();
             if (tbuf.remaining() >= S) {
                 byte nchar = tbuf.get( tbuf.position() + S -1 );
-                hash = Checksum.incrementChecksum(hash, b, nchar, S);
+                hash = roller.roll(hash, b, nchar);
             } else {
                 debug("out of char");
             }
             return b & 0xFF;
         }
 
+        /**
+         * Returns the candidate block, starting from <code>index</code>, whose
+         * source bytes agree longest with the buffered target bytes.
+         */
+        public long bestCandidate(SourceState source, long index) throws IOException {
+            if (tbuf.remaining() < tbuf.capacity())
+                readMore();
+            int window = tbuf.remaining();
+            long best = index;
+            int bestMatch = -1;
+            for (int depth = 0; index != -1 && depth < maxCandidates; depth++) {
+                if (stats != null)
+                    stats.candidates++;
+                source.seek(index * S);
+                int match = peekMatch(source, 0, window);
+                if (match > bestMatch) {
+                    best = index;
+                    bestMatch = match;
+                    if (match == window)
+                        break;
+                }
+                index = source.checksum.nextBlock(index);
+            }
+            sbuf.clear();
+            sbuf.limit(0);
+            return best;
+        }
+
+        /**
+         * Returns whether a match within {@link #lookahead} bytes of the
+         * buffered target is longer than that of the block at
+         * <code>index</code>, by more than the bytes skipped.
+         */
+        public boolean laterMatchIsLonger(SourceState source, long index) throws IOException {
+            if (tbuf.remaining() < tbuf.capacity())
+                readMore();
+            int window = tbuf.remaining();
+            source.seek(index * S);
+            int match = peekMatch(source, 0, window);
+            boolean longer = false;
+            for (int d = 1; d <= lookahead && d <= window - S; d++) {
+                long later = source.checksum.findBlock(
+                        rolling.hash(tbuf.array(), tbuf.arrayOffset() + tbuf.position() + d, S));
+                if (stats != null) {
+                    stats.lookups++;
+                    if (later != -1)
+                        stats.candidates++;
+                }
+                if (later == -1)
+                    continue;
+                source.seek(later * S);
+                if (peekMatch(source, d, window - d) > match + d) {
+                    longer = true;
+                    break;
+                }
+            }
+            sbuf.clear();
+            sbuf.limit(0);
+            return longer;
+        }
+
+        /**
+         * Returns the match length at the source location with the target
+         * <code>skip</code> bytes on, without consuming any target bytes.
+         */
+        private int peekMatch(SourceState source, int skip, int window) throws IOException {
+            sbuf.clear();
+            sbuf.limit(window);
+            while (sbuf.hasRemaining()) {
+                if (source.read(sbuf) == -1)
+                    break;
+            }
+            sbuf.flip();
+            return ArrayMatch.commonPrefix(sbuf.array(), sbuf.arrayOffset(), sbuf.arrayOffset() + sbuf.limit(),
+                    tbuf.array(), tbuf.arrayOffset() + tbuf.position() + skip, tbuf.arrayOffset() + tbuf.limit());
+        }
+
+        /**
+         * Returns the length of the match at the start of the source,
+         * consuming it.
+         */
+        public int commonPrefix(SourceState source) throws IOException {
+            sbuf.clear();
+            sbuf.limit(0);
+            source.seek(0);
+            return longestMatch(source);
+        }
+
         /**
          * Returns the longest match length at the source location.
          */
@@ -313,7 +1559,7 @@ public class Delta {
             while (true) {
                 if (!sbuf.hasRemaining()) {
                     sbuf.clear();
-                    int read = source.source.read(sbuf);
+                    int read = source.read(sbuf);
                     sbuf.flip();
                     if (read == -1)
                         return match;
@@ -326,11 +1572,15 @@ public class Delta {
                         return match;
                     }
                 }
-                if (sbuf.get() != tbuf.get()) {
-                    tbuf.position(tbuf.position() - 1);
+                int n = Math.min(sbuf.remaining(), tbuf.remaining());
+                int m = ArrayMatch.commonPrefix(
+                        sbuf.array(), sbuf.arrayOffset() + sbuf.position(), sbuf.arrayOffset() + sbuf.limit(),
+                        tbuf.array(), tbuf.arrayOffset() + tbuf.position(), tbuf.arrayOffset() + tbuf.limit());
+                sbuf.position(sbuf.position() + m);
+                tbuf.position(tbuf.position() + m);
+                match += m;
+                if (m < n)
                     return match;
-                }
-                match++;
             }
         }
 
@@ -338,8 +1588,22 @@ public class Delta {
             if (debug)
                 debug("readMore " + tbuf);
             tbuf.compact();
-            c.read(tbuf);
+            int read = fill();
             tbuf.flip();
+            if (read > 0)
+                filled += read;
+        }
+
+        /**
+         * Reads from the stream straight into the free part of {@link #tbuf}.
+         */
+        private int fill() throws IOException {
+            if (!tbuf.hasRemaining())
+                return 0;
+            int read = in.read(tbuf.array(), tbuf.arrayOffset() + tbuf.position(), tbuf.remaining());
+            if (read > 0)
+                tbuf.position(tbuf.position() + read);
+            return read;
         }
 
         /**
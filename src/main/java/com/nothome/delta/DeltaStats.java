@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+/**
+ * Counters and phase timings of computing deltas. {@link Delta} reports
+ * one instance per compute to its {@link DeltaListener}; instances can be
+ * added up, and an instance is itself a listener that adds up every
+ * compute it is passed, e.g. for all entries of an archive.
+ */
+public class DeltaStats implements DeltaListener {
+
+    long computes;
+    long indexedBytes;
+    long lookups;
+    long candidates;
+    long falsePositives;
+    long copies;
+    long copyBytes;
+    long targetCopies;
+    long targetCopyBytes;
+    long dataRuns;
+    long dataBytes;
+    long indexNanos;
+    long writeNanos;
+    long totalNanos;
+
+    /**
+     * Constructs empty statistics.
+     */
+    public DeltaStats() {}
+
+    /**
+     * Adds the statistics of another compute.
+     */
+    public synchronized void add(DeltaStats other) {
+        computes += other.computes;
+        indexedBytes += other.indexedBytes;
+        lookups += other.lookups;
+        candidates += other.candidates;
+        falsePositives += other.falsePositives;
+        copies += other.copies;
+        copyBytes += other.copyBytes;
+        targetCopies += other.targetCopies;
+        targetCopyBytes += other.targetCopyBytes;
+        dataRuns += other.dataRuns;
+        dataBytes += other.dataBytes;
+        indexNanos += other.indexNanos;
+        writeNanos += other.writeNanos;
+        totalNanos += other.totalNanos;
+    }
+
+    /**
+     * Adds the lookups and candidates of a segment scanned at the same time
+     * as instructions are counted.
+     */
+    synchronized void addProbes(DeltaStats probes) {
+        lookups += probes.lookups;
+        candidates += probes.candidates;
+    }
+
+    /**
+     * Adds <code>stats</code>, see {@link #add(DeltaStats)}.
+     */
+    public void computed(DeltaStats stats) {
+        add(stats);
+    }
+
+    /**
+     * Returns the number of computes.
+     */
+    public long getComputes() {
+        return computes;
+    }
+
+    /**
+     * Returns the number of source bytes in indexed blocks.
+     */
+    public long getIndexedBytes() {
+        return indexedBytes;
+    }
+
+    /**
+     * Returns the number of target hashes looked up in the index.
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Returns the number of source blocks compared with the target.
+     */
+    public long getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Returns the number of index hits whose source bytes did not match.
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * Returns the number of copy instructions from the source.
+     */
+    public long getCopies() {
+        return copies;
+    }
+
+    /**
+     * Returns the number of bytes copied from the source.
+     */
+    public long getCopyBytes() {
+        return copyBytes;
+    }
+
+    /**
+     * Returns the number of copy instructions from the target.
+     */
+    public long getTargetCopies() {
+        return targetCopies;
+    }
+
+    /**
+     * Returns the number of bytes copied from the target.
+     */
+    public long getTargetCopyBytes() {
+        return targetCopyBytes;
+    }
+
+    /**
+     * Returns the number of data instructions.
+     */
+    public long getDataRuns() {
+        return dataRuns;
+    }
+
+    /**
+     * Returns the number of data bytes.
+     */
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    /**
+     * Returns the nanoseconds spent building the index.
+     */
+    public long getIndexNanos() {
+        return indexNanos;
+    }
+
+    /**
+     * Returns the nanoseconds spent scanning the target, not counting the
+     * time spent in the output.
+     */
+    public long getScanNanos() {
+        return totalNanos - indexNanos - writeNanos;
+    }
+
+    /**
+     * Returns the nanoseconds spent in the output.
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Returns the nanoseconds spent in total.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns a debug <code>String</code>.
+     */
+    @Override
+    public synchronized String toString() {
+        return "DeltaStats" +
+            " computes=" + computes +
+            " indexedBytes=" + indexedBytes +
+            " lookups=" + lookups +
+            " candidates=" + candidates +
+            " falsePositives=" + falsePositives +
+            " copies=" + copies + "/" + copyBytes +
+            " targetCopies=" + targetCopies + "/" + targetCopyBytes +
+            " data=" + dataRuns + "/" + dataBytes +
+            " indexMs=" + indexNanos / 1000000 +
+            " scanMs=" + getScanNanos() / 1000000 +
+            " writeMs=" + writeNanos / 1000000 +
+            " totalMs=" + totalNanos / 1000000;
+    }
+
+}
@@ -42,6 +42,36 @@ public interface DiffWriter extends Closeable, java.io.Flushable {
      * Implementors should buffer the data.
      */
     void addData(byte b) throws IOException;
+
+    /**
+     * Add a GDIFF data instruction for <code>len</code> bytes of <code>b</code>
+     * starting at <code>off</code>.
+     * The default implementation adds them one by one.
+     */
+    default void addData(byte[] b, int off, int len) throws IOException {
+        for (int i = 0; i < len; i++)
+            addData(b[off + i]);
+    }
+
+    /**
+     * Returns how many of the most recent target bytes
+     * {@link #addTargetCopy(long, int)} may copy from, or 0 if target copies
+     * are not supported, the default.
+     */
+    default int getTargetWindow() {
+        return 0;
+    }
+
+    /**
+     * Add a copy instruction from the target written so far, from
+     * <code>offset</code> within the target. The copied range may overlap
+     * the bytes being written, repeating them.
+     *
+     * @throws UnsupportedOperationException if target copies are not supported
+     */
+    default void addTargetCopy(long offset, int length) throws IOException {
+        throw new UnsupportedOperationException();
+    }
 	
 	/**
 	 * Flushes to output, e.g. any data added.
@@ -27,7 +27,18 @@ package com.nothome.delta;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static com.nothome.delta.GDiffWriter.*;
 
@@ -39,22 +50,120 @@ import static com.nothome.delta.GDiffWriter.*;
  */
 public class GDiffPatcher {
     
-    private final ByteBuffer buf = ByteBuffer.allocate(1024);
-    private final byte[] buf2 = buf.array();
+    /**
+     * Default size of the patch and output buffers.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /**
+     * Patch bytes read ahead, from <code>inputPos</code> to <code>inputLimit</code>.
+     */
+    private byte[] input;
+    private int inputPos;
+    private int inputLimit;
+    /**
+     * Offset of <code>input[0]</code> in the patch.
+     */
+    private long inputBase;
+
+    /**
+     * Output bytes not yet written, up to <code>outputPos</code>.
+     */
+    private byte[] output;
+    private ByteBuffer outputBuffer;
+    private int outputPos;
+
+    /**
+     * Streams of the current patch.
+     */
+    private InputStream in;
+    private OutputStream out;
+    /**
+     * Channel <code>out</code> writes to, if patching to a channel.
+     */
+    private WritableByteChannel channel;
 
     /**
-     * Constructs a new GDiffPatcher.
+     * Target window of the last patch, reused by the next.
+     */
+    private byte[] window;
+
+    /**
+     * Whether source files are memory-mapped.
+     */
+    private boolean mapFiles;
+
+    /**
+     * Pool and output bytes per task for applying patch files in parallel,
+     * or <code>null</code>.
+     */
+    private ForkJoinPool pool;
+    private long segmentSize;
+
+    /**
+     * Constructs a new GDiffPatcher. It may be reused for many patches,
+     * one at a time.
      */
     public GDiffPatcher() {
     }
     
+    /**
+     * Sets whether {@link #patch(File, File, File)} reads the source file
+     * through a {@link MappedFileSeekableSource} rather than a
+     * {@link RandomAccessFileSeekableSource}.
+     */
+    public void setMapFiles(boolean mapFiles) {
+        this.mapFiles = mapFiles;
+    }
+    
+    /**
+     * Sets the pool {@link #patch(File, File, File)} applies patches on in
+     * parallel, or <code>null</code> for none, the default.
+     * <p>
+     * The patch is scanned first for the output offset of its commands,
+     * then the output file is preallocated and segments of about
+     * <code>segmentSize</code> output bytes are applied at once, each with
+     * positional reads and writes. Patches with target copies depend on
+     * earlier output, so they are still applied in order.
+     */
+    public void setPool(ForkJoinPool pool, long segmentSize) {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("Invalid segment size");
+        this.pool = pool;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Sets the size of the buffers the patch is read and the output is
+     * written through, {@link #DEFAULT_BUFFER_SIZE} by default.
+     */
+    public void setBufferSize(int size) {
+        if (size < 16)
+            throw new IllegalArgumentException("Invalid size");
+        bufferSize = size;
+    }
+
     /**
      * Patches to an output file.
+     *
+     * @see #setPool(ForkJoinPool, long)
      */
     public void patch(File sourceFile, File patchFile, File outputFile)
 		throws IOException
 	{
-        try (RandomAccessFileSeekableSource source = new RandomAccessFileSeekableSource(new RandomAccessFile(sourceFile, "r")); InputStream patch = Files.newInputStream(patchFile.toPath()); OutputStream output = Files.newOutputStream(outputFile.toPath())) {
+        if (pool != null) {
+            long[] segments;
+            try (InputStream patch = Files.newInputStream(patchFile.toPath())) {
+                segments = segments(patch);
+            }
+            if (segments != null) {
+                patch(sourceFile, patchFile, outputFile, segments);
+                return;
+            }
+        }
+        try (SeekableSource source = mapFiles ? new MappedFileSeekableSource(sourceFile) : new RandomAccessFileSeekableSource(new RandomAccessFile(sourceFile, "r")); InputStream patch = Files.newInputStream(patchFile.toPath()); FileChannel output = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
             patch(source, patch, output);
         }
     }
@@ -68,111 +177,548 @@ public class GDiffPatcher {
 
     /**
      * Patches to an output stream.
+     * <p>
+     * The patch is read ahead in blocks of the buffer size, so reading may go
+     * past the end of the patch, and output is written in blocks of the same
+     * size.
+     *
+     * @see #setBufferSize(int)
      */
     public void patch(SeekableSource source, InputStream patch, OutputStream out) throws IOException {
-        
-        DataOutputStream outOS = new DataOutputStream(out);
-        DataInputStream patchIS = new DataInputStream(patch);
+        patch(source, patch, out, null);
+    }
+
+    /**
+     * Patches to a channel, like {@link #patch(SeekableSource, InputStream, OutputStream)}.
+     * Copied bytes go from the source to the channel with
+     * {@link SeekableSource#transferTo(long, long, WritableByteChannel)},
+     * which file and buffer sources do without copying through the heap.
+     * Patches with target copies are applied through the output buffer.
+     */
+    public void patch(SeekableSource source, InputStream patch, WritableByteChannel out) throws IOException {
+        patch(source, patch, Channels.newOutputStream(out), out);
+    }
 
+    private void patch(SeekableSource source, InputStream patch, OutputStream out, WritableByteChannel channel)
+            throws IOException {
+        begin(patch, out, channel);
+        try {
+            patch(source);
+        } finally {
+            end();
+        }
+    }
+
+    private void begin(InputStream patch, OutputStream out, WritableByteChannel channel) {
+        if (input == null || input.length != bufferSize) {
+            input = new byte[bufferSize];
+            output = new byte[bufferSize];
+            outputBuffer = ByteBuffer.wrap(output);
+        }
+        this.in = patch;
+        this.out = out;
+        this.channel = channel;
+        inputPos = inputLimit = 0;
+        inputBase = 0;
+        outputPos = 0;
+    }
+
+    private void end() {
+        // don't hold on to the streams
+        this.in = null;
+        this.out = null;
+        this.channel = null;
+    }
+
+    /**
+     * Reads the magic string, returning the version.
+     */
+    private int readVersion() throws IOException {
         // the magic string is 'd1 ff d1 ff' + the version number
-        if (patchIS.readUnsignedByte() != 0xd1 ||
-                patchIS.readUnsignedByte() != 0xff ||
-                patchIS.readUnsignedByte() != 0xd1 ||
-                patchIS.readUnsignedByte() != 0xff ||
-                patchIS.readUnsignedByte() != 0x04) {
+        int version;
+        if (readUnsignedByte() != 0xd1 ||
+                readUnsignedByte() != 0xff ||
+                readUnsignedByte() != 0xd1 ||
+                readUnsignedByte() != 0xff ||
+                (version = readUnsignedByte()) != 0x04 && version != TARGET_COPY_VERSION) {
 
             throw new PatchException("magic string not found, aborting!");
         }
+        return version;
+    }
+
+    private void patch(SeekableSource source) throws IOException {
+        int version = readVersion();
+        TargetWindow window = null;
+        if (version == TARGET_COPY_VERSION) {
+            long sourceLength = readLong();
+            int size = readInt();
+            if (sourceLength < 0 || size < 0)
+                throw new PatchException("invalid header");
+            if (source.length() >= 0 && source.length() != sourceLength)
+                throw new PatchException("patch for a source of " + sourceLength + " bytes, not " + source.length());
+            if (this.window == null || this.window.length < size)
+                this.window = new byte[size];
+            window = new TargetWindow(out, sourceLength, this.window, size);
+            out = window;
+            channel = null;     // the window must see every byte
+        }
+        apply(source, window);
+    }
 
+    /**
+     * Applies the commands up to the EOF command.
+     */
+    private void apply(SeekableSource source, TargetWindow window) throws IOException {
         while (true) {
-            int command = patchIS.readUnsignedByte();
+            int command = readUnsignedByte();
             if (command == EOF)
                 break;
             int length;
             int offset;
             
             if (command <= DATA_MAX) {
-                append(command, patchIS, outOS);
+                append(command);
                 continue;
             }
             
             switch (command) {
             case DATA_USHORT: // ushort, n bytes following; append
-                length = patchIS.readUnsignedShort();
-                append(length, patchIS, outOS);
+                length = readUnsignedShort();
+                append(length);
                 break;
             case DATA_INT: // int, n bytes following; append
-                length = patchIS.readInt();
-                append(length, patchIS, outOS);
+                length = readInt();
+                append(length);
                 break;
             case COPY_USHORT_UBYTE:
-                offset = patchIS.readUnsignedShort();
-                length = patchIS.readUnsignedByte();
-                copy(offset, length, source, outOS);
+                offset = readUnsignedShort();
+                length = readUnsignedByte();
+                copy(offset, length, source, window);
                 break;
             case COPY_USHORT_USHORT:
-                offset = patchIS.readUnsignedShort();
-                length = patchIS.readUnsignedShort();
-                copy(offset, length, source, outOS);
+                offset = readUnsignedShort();
+                length = readUnsignedShort();
+                copy(offset, length, source, window);
                 break;
             case COPY_USHORT_INT:
-                offset = patchIS.readUnsignedShort();
-                length = patchIS.readInt();
-                copy(offset, length, source, outOS);
+                offset = readUnsignedShort();
+                length = readInt();
+                copy(offset, length, source, window);
                 break;
             case COPY_INT_UBYTE:
-                offset = patchIS.readInt();
-                length = patchIS.readUnsignedByte();
-                copy(offset, length, source, outOS);
+                offset = readInt();
+                length = readUnsignedByte();
+                copy(offset, length, source, window);
                 break;
             case COPY_INT_USHORT:
-                offset = patchIS.readInt();
-                length = patchIS.readUnsignedShort();
-                copy(offset, length, source, outOS);
+                offset = readInt();
+                length = readUnsignedShort();
+                copy(offset, length, source, window);
                 break;
             case COPY_INT_INT:
-                offset = patchIS.readInt();
-                length = patchIS.readInt();
-                copy(offset, length, source, outOS);
+                offset = readInt();
+                length = readInt();
+                copy(offset, length, source, window);
                 break;
             case COPY_LONG_INT:
-                long loffset = patchIS.readLong();
-                length = patchIS.readInt();
-                copy(loffset, length, source, outOS);
+                long loffset = readLong();
+                length = readInt();
+                copy(loffset, length, source, window);
                 break;
             default: 
                 throw new IllegalStateException("command " + command);
             }
         }
-		outOS.flush();
+        flushOutput();
+        out.flush();
     }
 
-    private void copy(long offset, int length, SeekableSource source, OutputStream output)
+    private void copy(long offset, int length, SeekableSource source, TargetWindow window)
 		throws IOException
 	{
-        source.seek(offset);
+        if (window != null && offset >= window.sourceLength) {
+            flushOutput();
+            window.copy(offset - window.sourceLength, length, output);
+            return;
+        }
+        long pos = offset;
+        if (channel != null && length >= output.length - outputPos) {
+            flushOutput();
+            while (length > 0) {
+                long res = source.transferTo(pos, length, channel);
+                if (res == -1)
+                    throw new EOFException("in copy " + offset + " " + length);
+                pos += res;
+                length -= res;
+            }
+            return;
+        }
         while (length > 0) {
-            int len = Math.min(buf.capacity(), length);
-            buf.clear().limit(len);
-            int res = source.read(buf);
+            if (outputPos == output.length)
+                flushOutput();
+            int len = Math.min(output.length - outputPos, length);
+            outputBuffer.clear().position(outputPos).limit(outputPos + len);
+            int res = source.read(pos, outputBuffer);
             if (res == -1)
                 throw new EOFException("in copy " + offset + " " + length);
-            output.write(buf.array(), 0, res);
+            outputPos += res;
+            pos += res;
             length -= res;
         }
     }
 
-    private void append(int length, InputStream patch, OutputStream output) throws IOException {
+    /**
+     * Appends <code>length</code> bytes of the patch to the output.
+     */
+    private void append(int length) throws IOException {
         while (length > 0) {
-            int len = Math.min(buf2.length, length);
-    	    int res = patch.read(buf2, 0, len);
-    	    if (res == -1)
-    	        throw new EOFException("cannot read " + length);
-            output.write(buf2, 0, res);
-            length -= res;
+            if (inputPos == inputLimit)
+                fill(1);
+            int len = Math.min(inputLimit - inputPos, length);
+            if (len > output.length - outputPos)
+                flushOutput();
+            if (len == output.length) {
+                // as large as the buffer, skip it
+                out.write(input, inputPos, len);
+            } else {
+                System.arraycopy(input, inputPos, output, outputPos, len);
+                outputPos += len;
+            }
+            inputPos += len;
+            length -= len;
         }
     }
 
+    private void flushOutput() throws IOException {
+        if (outputPos > 0) {
+            out.write(output, 0, outputPos);
+            outputPos = 0;
+        }
+    }
+
+    /**
+     * Reads until at least <code>n</code> patch bytes are buffered.
+     */
+    private void fill(int n) throws IOException {
+        int remaining = inputLimit - inputPos;
+        System.arraycopy(input, inputPos, input, 0, remaining);
+        inputBase += inputPos;
+        inputPos = 0;
+        inputLimit = remaining;
+        while (inputLimit < n) {
+            int res = in.read(input, inputLimit, input.length - inputLimit);
+            if (res == -1)
+                throw new EOFException("patch ends");
+            inputLimit += res;
+        }
+    }
+
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            if (inputPos == inputLimit)
+                fill(1);
+            int len = (int) Math.min(inputLimit - inputPos, n);
+            inputPos += len;
+            n -= len;
+        }
+    }
+
+    private int readUnsignedByte() throws IOException {
+        if (inputPos == inputLimit)
+            fill(1);
+        return input[inputPos++] & 0xff;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        if (inputLimit - inputPos < 2)
+            fill(2);
+        int v = (input[inputPos] & 0xff) << 8 | input[inputPos + 1] & 0xff;
+        inputPos += 2;
+        return v;
+    }
+
+    private int readInt() throws IOException {
+        if (inputLimit - inputPos < 4)
+            fill(4);
+        int v = (input[inputPos] & 0xff) << 24 | (input[inputPos + 1] & 0xff) << 16
+                | (input[inputPos + 2] & 0xff) << 8 | input[inputPos + 3] & 0xff;
+        inputPos += 4;
+        return v;
+    }
+
+    private long readLong() throws IOException {
+        return (long) readInt() << 32 | readInt() & 0xffffffffL;
+    }
+
+    /**
+     * Scans a patch for the commands that start segments of at least
+     * {@link #segmentSize} output bytes. Returns the patch and output offsets
+     * of each, in pairs, followed by those of the EOF command, or
+     * <code>null</code> if the patch has target copies.
+     */
+    private long[] segments(InputStream patch) throws IOException {
+        begin(patch, null, null);
+        try {
+            if (readVersion() == TARGET_COPY_VERSION)
+                return null;
+            long[] segments = new long[16];
+            int count = 0;
+            long pos = 0;
+            long next = 0;
+            while (true) {
+                long start = inputBase + inputPos;
+                if (pos >= next) {
+                    segments = add(segments, count, start, pos);
+                    count += 2;
+                    next = pos + segmentSize;
+                }
+                int command = readUnsignedByte();
+                if (command == EOF) {
+                    segments = add(segments, count, start, pos);
+                    return Arrays.copyOf(segments, count + 2);
+                }
+                long length;
+                if (command <= DATA_MAX) {
+                    skip(command);
+                    pos += command;
+                    continue;
+                }
+                switch (command) {
+                case DATA_USHORT:
+                    length = readUnsignedShort();
+                    skip(length);
+                    break;
+                case DATA_INT:
+                    length = readInt();
+                    skip(length);
+                    break;
+                case COPY_USHORT_UBYTE:
+                    skip(2);
+                    length = readUnsignedByte();
+                    break;
+                case COPY_USHORT_USHORT:
+                    skip(2);
+                    length = readUnsignedShort();
+                    break;
+                case COPY_USHORT_INT:
+                    skip(2);
+                    length = readInt();
+                    break;
+                case COPY_INT_UBYTE:
+                    skip(4);
+                    length = readUnsignedByte();
+                    break;
+                case COPY_INT_USHORT:
+                    skip(4);
+                    length = readUnsignedShort();
+                    break;
+                case COPY_INT_INT:
+                    skip(4);
+                    length = readInt();
+                    break;
+                case COPY_LONG_INT:
+                    skip(8);
+                    length = readInt();
+                    break;
+                default:
+                    throw new IllegalStateException("command " + command);
+                }
+                pos += length;
+            }
+        } finally {
+            end();
+        }
+    }
+
+    private static long[] add(long[] segments, int count, long patchOffset, long outputOffset) {
+        if (count == segments.length)
+            segments = Arrays.copyOf(segments, count * 2);
+        segments[count] = patchOffset;
+        segments[count + 1] = outputOffset;
+        return segments;
+    }
+
+    /**
+     * Applies the segments of a patch file on {@link #pool}, each with its
+     * own patcher, into the preallocated output file.
+     */
+    private void patch(File sourceFile, File patchFile, File outputFile, final long[] segments) throws IOException {
+        try (final SeekableSource source = mapFiles ? new MappedFileSeekableSource(sourceFile) : new RandomAccessFileSeekableSource(new RandomAccessFile(sourceFile, "r"));
+             final FileChannel patch = FileChannel.open(patchFile.toPath(), StandardOpenOption.READ);
+             RandomAccessFile output = new RandomAccessFile(outputFile, "rw")) {
+            output.setLength(segments[segments.length - 1]);
+            final FileChannel out = output.getChannel();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i + 2 < segments.length; i += 2) {
+                final long from = segments[i], to = segments[i + 2];
+                final long position = segments[i + 1];
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        GDiffPatcher patcher = new GDiffPatcher();
+                        patcher.setBufferSize(bufferSize);
+                        // the commands of the segment, ended like a whole patch
+                        InputStream commands = new SequenceInputStream(new RangeInputStream(patch, from, to),
+                                new ByteArrayInputStream(new byte[] { EOF }));
+                        PositionalChannel channel = new PositionalChannel(out, position);
+                        patcher.begin(commands, Channels.newOutputStream(channel), channel);
+                        try {
+                            patcher.apply(source, null);
+                            patcher.flushOutput();
+                        } finally {
+                            patcher.end();
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> f : pool.invokeAll(tasks))
+                join(f);
+        }
+    }
+
+    private static void join(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads a range of a file with positional reads.
+     */
+    private static class RangeInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long pos;
+        private final long end;
+
+        RangeInputStream(FileChannel channel, long pos, long end) {
+            this.channel = channel;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end)
+                return -1;
+            int res = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+            if (res == -1)
+                throw new EOFException("patch ends");
+            pos += res;
+            return res;
+        }
+
+    }
+
+    /**
+     * Writes to a file with positional writes, from a position on.
+     */
+    private static class PositionalChannel implements WritableByteChannel {
+
+        private final FileChannel channel;
+        private long pos;
+
+        PositionalChannel(FileChannel channel, long pos) {
+            this.channel = channel;
+            this.pos = pos;
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            int res = channel.write(src, pos);
+            pos += res;
+            return res;
+        }
+
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        public void close() {}
+
+    }
+
+    /**
+     * Keeps the last bytes of the output for target copies.
+     */
+    private static class TargetWindow extends FilterOutputStream {
+
+        private final long sourceLength;
+        private final byte[] window;
+        private final int size;
+        /**
+         * Bytes written so far.
+         */
+        private long pos;
+
+        /**
+         * Keeps the last <code>size</code> bytes in <code>window</code>.
+         */
+        TargetWindow(OutputStream out, long sourceLength, byte[] window, int size) {
+            super(out);
+            this.sourceLength = sourceLength;
+            this.window = window;
+            this.size = size;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (size > 0)
+                window[(int) (pos % size)] = (byte) b;
+            pos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            int skip = Math.max(len - size, 0);
+            pos += skip;
+            off += skip;
+            len -= skip;
+            if (len == 0)
+                return;
+            int i = (int) (pos % size);
+            int n = Math.min(len, size - i);
+            System.arraycopy(b, off, window, i, n);
+            System.arraycopy(b, off + n, window, 0, len - n);
+            pos += len;
+        }
+
+        /**
+         * Copies from the target at <code>offset</code>, through <code>tmp</code>.
+         */
+        void copy(long offset, int length, byte[] tmp) throws IOException {
+            if (offset >= pos || pos - offset > size)
+                throw new PatchException("target copy " + offset + " outside of window");
+            while (length > 0) {
+                // at most the distance, so that overlapping copies repeat
+                int n = (int) Math.min(Math.min(length, pos - offset), tmp.length);
+                int i = (int) (offset % size);
+                int m = Math.min(n, size - i);
+                System.arraycopy(window, i, tmp, 0, m);
+                System.arraycopy(window, 0, tmp, m, n - m);
+                write(tmp, 0, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+    }
+
     /**
      * Simple command line tool to patch a file.
      */
@@ -24,10 +24,10 @@
 
 package com.nothome.delta;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * Outputs a diff following the GDIFF file specification available at
@@ -57,28 +57,86 @@ public class GDiffWriter implements DiffWriter {
     public static final int COPY_INT_INT = 254;
     public static final int COPY_LONG_INT = 255;
 
-    private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    /**
+     * Version of patches with target copies, whose header is followed by the
+     * source length and the target window. Copy offsets from the source
+     * length on address the target.
+     */
+    public static final int TARGET_COPY_VERSION = 5;
+
+    /**
+     * Data bytes not yet written, grown up to {@link #CHUNK_SIZE}.
+     */
+    private byte[] buf = new byte[256];
+    private int bufSize;
+
+    private DataOutputStream output;
 
-    private final DataOutputStream output;
+    private final long sourceLength;
+    private final int targetWindow;
     
     /**
      * Constructs a new GDiffWriter.
      */
     public GDiffWriter(DataOutputStream os) throws IOException {
+        this(os, -1, 0);
+    }
+    
+    /**
+     * Constructs a new GDiffWriter.
+     */
+    public GDiffWriter(OutputStream output) throws IOException {
+        this(new DataOutputStream(output));
+    }
+
+    /**
+     * Constructs a new GDiffWriter that also supports copies from the last
+     * <code>targetWindow</code> target bytes, if not 0. Such patches use
+     * {@link #TARGET_COPY_VERSION} and are only valid for a source of
+     * <code>sourceLength</code> bytes; patchers keep the window in memory.
+     */
+    public GDiffWriter(DataOutputStream os, long sourceLength, int targetWindow) throws IOException {
+        if (targetWindow < 0 || targetWindow > 0 && sourceLength < 0)
+            throw new IllegalArgumentException("Invalid window");
         this.output = os;
+        this.sourceLength = sourceLength;
+        this.targetWindow = targetWindow;
+        writeHeader();
+    }
+
+    /**
+     * Starts another patch on <code>os</code> with the same settings,
+     * reusing the data buffer. Data not yet written is discarded.
+     */
+    public void reset(DataOutputStream os) throws IOException {
+        output = os;
+        bufSize = 0;
+        ended = false;
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
         // write magic string "d1 ff d1 ff 04"
         output.writeByte(0xd1);
         output.writeByte(0xff);
         output.writeByte(0xd1);
         output.writeByte(0xff);
-        output.writeByte(0x04);
+        if (targetWindow == 0) {
+            output.writeByte(0x04);
+        } else {
+            output.writeByte(TARGET_COPY_VERSION);
+            output.writeLong(sourceLength);
+            output.writeInt(targetWindow);
+        }
     }
-    
+
     /**
-     * Constructs a new GDiffWriter.
+     * Constructs a new GDiffWriter with target copies.
+     *
+     * @see #GDiffWriter(DataOutputStream, long, int)
      */
-    public GDiffWriter(OutputStream output) throws IOException {
-        this(new DataOutputStream(output));
+    public GDiffWriter(OutputStream output, long sourceLength, int targetWindow) throws IOException {
+        this(new DataOutputStream(output), sourceLength, targetWindow);
     }
 
     public void addCopy(long offset, int length) throws IOException {
@@ -121,30 +179,69 @@ public class GDiffWriter implements DiffWriter {
         }
     }
     
+    public int getTargetWindow() {
+        return targetWindow;
+    }
+
+    public void addTargetCopy(long offset, int length) throws IOException {
+        if (targetWindow == 0)
+            throw new UnsupportedOperationException();
+        addCopy(sourceLength + offset, length);
+    }
+    
     /**
      * Adds a data byte.
      */
     public void addData(byte b) throws IOException {
-        buf.write(b);
-        if (buf.size() >= CHUNK_SIZE)
+        if (bufSize == buf.length)
+            buf = Arrays.copyOf(buf, Math.min(bufSize * 2, CHUNK_SIZE));
+        buf[bufSize++] = b;
+        if (bufSize >= CHUNK_SIZE)
             writeBuf();
     }
+
+    /**
+     * Adds data bytes. Chunks are split as if added one by one.
+     */
+    public void addData(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (bufSize == 0 && len >= CHUNK_SIZE) {
+                writeData(b, off, CHUNK_SIZE);
+                off += CHUNK_SIZE;
+                len -= CHUNK_SIZE;
+                continue;
+            }
+            int n = Math.min(len, CHUNK_SIZE - bufSize);
+            if (bufSize + n > buf.length)
+                buf = Arrays.copyOf(buf, Math.min(Math.max(bufSize + n, bufSize * 2), CHUNK_SIZE));
+            System.arraycopy(b, off, buf, bufSize, n);
+            bufSize += n;
+            off += n;
+            len -= n;
+            if (bufSize >= CHUNK_SIZE)
+                writeBuf();
+        }
+    }
     
     private void writeBuf() throws IOException {
-        if (buf.size() > 0) {
-            if (buf.size() <= DATA_MAX) {
-                output.writeByte(buf.size());
-            } else if (buf.size() <= 65535) {
-                output.writeByte(DATA_USHORT);
-                output.writeShort(buf.size());
-            } else {
-                output.writeByte(DATA_INT);
-                output.writeInt(buf.size());
-            }
-            buf.writeTo(output);
-            buf.reset();
+        if (bufSize > 0) {
+            writeData(buf, 0, bufSize);
+            bufSize = 0;
         }
     }
+
+    private void writeData(byte[] b, int off, int len) throws IOException {
+        if (len <= DATA_MAX) {
+            output.writeByte(len);
+        } else if (len <= 65535) {
+            output.writeByte(DATA_USHORT);
+            output.writeShort(len);
+        } else {
+            output.writeByte(DATA_INT);
+            output.writeInt(len);
+        }
+        output.write(b, off, len);
+    }
     
     /**
      * Flushes accumulated data bytes, if any.
@@ -158,12 +255,13 @@ public class GDiffWriter implements DiffWriter {
     private boolean ended;
 
     /**
-     * Writes the final EOF byte.
+     * Writes the final EOF byte and flushes.
      */
     public void end() throws IOException {
         if (ended) return;
-        this.flush();
+        writeBuf();
         output.write(EOF);
+        output.flush();
         ended = true;
     }
     
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.IOException;
+
+/**
+ * Thrown when computing a delta exceeds the size or time limit set with
+ * {@link Delta#setPatchLimit(long)} or {@link Delta#setTimeLimit(long, java.util.concurrent.TimeUnit)}.
+ * The patch written so far is incomplete.
+ */
+public class LimitExceededException extends IOException {
+
+    private static final long serialVersionUID = -2874915638110722593L;
+
+    /**
+     * Constructs an instance of <code>LimitExceededException</code> with the specified detail message.
+     * @param msg the detail message.
+     */
+    public LimitExceededException(String msg) {
+        super(msg);
+    }
+}
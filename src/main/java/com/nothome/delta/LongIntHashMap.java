@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from primitive <code>long</code> keys to
+ * non-negative <code>int</code> values, used for indexing checksums
+ * without boxing.
+ * <p>
+ * Putting an existing key replaces its value, like {@link java.util.HashMap#put}.
+ * <p>
+ * This class is not thread safe.
+ */
+public class LongIntHashMap {
+
+    /**
+     * Returned by {@link #get(long)} if the key is absent.
+     */
+    public static final int NO_VALUE = -1;
+
+    /**
+     * Returned by {@link #putBelow(long, int, int)} if there is no free slot
+     * for the key below the limit.
+     */
+    static final int OVERFLOW = -2;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private long[] keys;
+    /**
+     * Values plus one; zero marks a free slot.
+     */
+    private int[] values;
+    private int mask;
+    /**
+     * 64 minus the number of bits of a slot index.
+     */
+    private int shift;
+    private int size;
+    private int threshold;
+
+    /**
+     * Constructs a new LongIntHashMap.
+     */
+    public LongIntHashMap() {
+        this(0);
+    }
+
+    /**
+     * Constructs a new LongIntHashMap able to hold <code>expectedSize</code>
+     * keys without rehashing.
+     */
+    public LongIntHashMap(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Invalid size");
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // load factor of 3/4
+        long wanted = (long) expectedSize * 4 / 3 + 1;
+        int capacity = MIN_CAPACITY;
+        while (capacity < wanted && capacity < MAX_CAPACITY)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        threshold = capacity / 4 * 3;
+    }
+
+    /**
+     * Returns the slot probing for a key starts at: the top bits of the key
+     * times the golden ratio. So a key falls into the same fraction of the
+     * table at any capacity, which {@link Checksum} uses to merge tables in
+     * parallel.
+     */
+    int home(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * Returns the value of a key, or {@link #NO_VALUE}.
+     */
+    public int get(long key) {
+        final long[] keys = this.keys;
+        final int[] values = this.values;
+        int i = home(key);
+        int v;
+        while ((v = values[i]) != 0) {
+            if (keys[i] == key)
+                return v - 1;
+            i = (i + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Associates a value with a key.
+     * @return the previous value, or {@link #NO_VALUE}
+     */
+    public int put(long key, int value) {
+        if (value < 0 || value == Integer.MAX_VALUE)
+            throw new IllegalArgumentException("value " + value);
+        int i = home(key);
+        int v;
+        while ((v = values[i]) != 0) {
+            if (keys[i] == key) {
+                values[i] = value + 1;
+                return v - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size >= threshold) {
+            if (values.length == MAX_CAPACITY)
+                throw new IllegalStateException("LongIntHashMap is full");
+            rehash(values.length << 1);
+            return put(key, value);
+        }
+        keys[i] = key;
+        values[i] = value + 1;
+        size++;
+        return NO_VALUE;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == 0)
+                continue;
+            int i = home(oldKeys[j]);
+            while (values[i] != 0)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    /**
+     * Like {@link #put(long, int)}, but probes no further than the slot
+     * before <code>limit</code> and neither grows the table nor counts the
+     * key, see {@link #added(int)}. Threads may call it concurrently for keys
+     * whose home slots lie in disjoint ranges, each ending at its limit.
+     * @return the previous value, {@link #NO_VALUE}, or {@link #OVERFLOW}
+     */
+    int putBelow(long key, int value, int limit) {
+        int i = home(key);
+        int v;
+        while ((v = values[i]) != 0) {
+            if (keys[i] == key) {
+                values[i] = value + 1;
+                return v - 1;
+            }
+            if (++i == limit)
+                return OVERFLOW;
+        }
+        keys[i] = key;
+        values[i] = value + 1;
+        return NO_VALUE;
+    }
+
+    /**
+     * Counts keys added with {@link #putBelow(long, int, int)}.
+     */
+    void added(int count) {
+        size += count;
+    }
+
+    /**
+     * Returns the number of slots.
+     */
+    int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Returns the key in a slot, if {@link #valueAt(int)} is not {@link #NO_VALUE}.
+     */
+    long keyAt(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Returns the value in a slot, or {@link #NO_VALUE} if it is free.
+     */
+    int valueAt(int i) {
+        return values[i] - 1;
+    }
+
+    /**
+     * Returns the number of keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all keys, keeping the allocated table.
+     */
+    public void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    /**
+     * Removes all keys for reuse with about <code>expectedSize</code> keys.
+     * The table is kept unless it is too small, or so large that clearing
+     * it would cost more than allocating a new one.
+     */
+    public void clear(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Invalid size");
+        int capacity = capacityFor(expectedSize);
+        if (capacity > values.length || capacity < values.length >> 4) {
+            allocate(capacity);
+            size = 0;
+        } else {
+            clear();
+        }
+    }
+
+    /**
+     * Returns a debug <code>String</code>.
+     */
+    @Override
+    public String toString()
+    {
+        return "LongIntHashMap" +
+            " size=" + this.size +
+            " capacity=" + this.values.length +
+            "";
+    }
+
+}
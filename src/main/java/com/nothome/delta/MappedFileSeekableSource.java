@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Wraps a memory-mapped file.
+ * Files over 2GB are mapped in several regions, so reads are served from
+ * the page cache without a system call per read.
+ * {@link #read(long, ByteBuffer)} may be called by several threads at once.
+ */
+public class MappedFileSeekableSource implements SeekableSource {
+
+    /**
+     * Size of each mapped region.
+     */
+    static final int REGION_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long length;
+    private MappedByteBuffer[] regions;
+    private long pos;
+
+    /**
+     * Constructs a new MappedFileSeekableSource, mapping the current
+     * contents of the channel read-only.
+     */
+    public MappedFileSeekableSource(FileChannel channel) throws IOException {
+        this(Objects.requireNonNull(channel, "channel"), false);
+    }
+
+    /**
+     * Constructs a new MappedFileSeekableSource for a file.
+     */
+    public MappedFileSeekableSource(File file) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ), true);
+    }
+
+    /**
+     * Maps the channel, closing it if that fails and <code>owned</code>.
+     */
+    private MappedFileSeekableSource(FileChannel channel, boolean owned) throws IOException {
+        this.channel = channel;
+        try {
+            this.length = channel.size();
+            int count = (int) ((length + REGION_SIZE - 1) / REGION_SIZE);
+            regions = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, length - start));
+            }
+        } catch (Throwable e) {
+            if (owned) {
+                try {
+                    channel.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos < 0 || pos > length)
+            throw new IOException("pos " + pos + " cannot seek " + length);
+        this.pos = pos;
+    }
+
+    public int read(ByteBuffer bb) throws IOException {
+        int c = read(pos, bb);
+        if (c > 0)
+            pos += c;
+        return c;
+    }
+
+    public int read(long pos, ByteBuffer bb) throws IOException {
+        if (pos < 0)
+            throw new IOException("pos " + pos);
+        if (pos >= length)
+            return -1;
+        final MappedByteBuffer[] regions = this.regions;
+        int c = 0;
+        while (bb.hasRemaining() && pos < length) {
+            ByteBuffer region = regions[(int) (pos / REGION_SIZE)].duplicate();
+            region.position((int) (pos % REGION_SIZE));
+            if (region.remaining() > bb.remaining())
+                region.limit(region.position() + bb.remaining());
+            int n = region.remaining();
+            bb.put(region);
+            pos += n;
+            c += n;
+        }
+        return c;
+    }
+
+    /**
+     * Writes a slice of the mapped region at <code>pos</code> straight to the target.
+     */
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        if (pos < 0)
+            throw new IOException("pos " + pos);
+        if (pos >= length)
+            return -1;
+        ByteBuffer region = regions[(int) (pos / REGION_SIZE)].duplicate();
+        region.position((int) (pos % REGION_SIZE));
+        if (region.remaining() > count)
+            region.limit(region.position() + (int) count);
+        return target.write(region);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public void close() throws IOException {
+        regions = null;
+        channel.close();
+    }
+
+    /**
+     * Returns a debug <code>String</code>.
+     */
+    @Override
+    public String toString()
+    {
+        return "MappedSeekable" +
+            " length=" + this.length +
+            " pos=" + this.pos +
+            "";
+    }
+
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Open addressing hash table from checksums to <code>long</code> block
+ * indices, kept outside of the Java heap in fixed-size pages of direct or
+ * file-mapped memory.
+ * Used for sources with too many blocks for {@link LongIntHashMap}.
+ * <p>
+ * Adding an existing key replaces its value. If <code>chained</code>, the
+ * replaced value is remembered and returned by {@link #previous(long)}.
+ * <p>
+ * A {@link SourceSignature} stores an index in its file and looks keys up
+ * in place.
+ * <p>
+ * This class is not thread safe for writing.
+ */
+public class OffHeapIndex {
+
+    /**
+     * Returned by {@link #get(long)} and {@link #previous(long)} if there is no value.
+     */
+    public static final long NO_VALUE = -1;
+
+    /**
+     * Entries per page of the table: 16 bytes each, 64 MB per page.
+     */
+    private static final int TABLE_PAGE_SHIFT = 22;
+    /**
+     * Values per page of the chain: 8 bytes each, 8 MB per full page.
+     */
+    private static final int CHAIN_PAGE_SHIFT = 20;
+    private static final int MIN_CAPACITY = 16;
+
+    private final int tablePageShift;
+    private final FileChannel channel;
+    /**
+     * Whether keys may be added, false for mapped indexes.
+     */
+    private final boolean writable;
+    private long fileOffset;
+    /**
+     * Regions of the file no longer used, by offset to length.
+     */
+    private final TreeMap<Long, Long> free = new TreeMap<>();
+    private long[] tableOffsets;
+
+    private ByteBuffer[] table;
+    private int pageShift;
+    private long mask;
+    private long size;
+    private long threshold;
+
+    private ByteBuffer[] chain;
+    private long[] chainOffsets;
+    /**
+     * Number of values the chain is sized for at first.
+     */
+    private long chainSize;
+
+    /**
+     * Constructs a new OffHeapIndex in direct memory, able to hold
+     * <code>expectedSize</code> keys without rehashing.
+     */
+    public OffHeapIndex(long expectedSize, boolean chained) {
+        this(expectedSize, chained, null);
+    }
+
+    /**
+     * Constructs a new OffHeapIndex whose pages are mapped from
+     * <code>channel</code>, which must be open for reading and writing.
+     * The file is truncated first and then grown as needed; the pages of a
+     * table replaced when rehashing are reused for later pages.
+     * If <code>channel</code> is <code>null</code>, direct memory is used.
+     */
+    public OffHeapIndex(long expectedSize, boolean chained, FileChannel channel) {
+        this(expectedSize, chained, channel, TABLE_PAGE_SHIFT);
+    }
+
+    /**
+     * Constructs a new OffHeapIndex with table pages of at most
+     * <code>1 &lt;&lt; tablePageShift</code> entries.
+     */
+    OffHeapIndex(long expectedSize, boolean chained, FileChannel channel, int tablePageShift) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Invalid size");
+        this.tablePageShift = tablePageShift;
+        this.channel = channel;
+        this.writable = true;
+        if (channel != null) {
+            try {
+                channel.truncate(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        allocate(capacityFor(expectedSize));
+        if (chained) {
+            chain = new ByteBuffer[0];
+            if (channel != null)
+                chainOffsets = new long[0];
+            chainSize = expectedSize;
+        }
+    }
+
+    /**
+     * Constructs a read-only index over existing pages.
+     */
+    private OffHeapIndex(ByteBuffer[] table, int pageShift, long size, ByteBuffer[] chain) {
+        this.tablePageShift = pageShift;
+        this.channel = null;
+        this.writable = false;
+        this.table = table;
+        this.pageShift = pageShift;
+        this.mask = ((long) table.length << pageShift) - 1;
+        this.size = size;
+        this.threshold = Long.MAX_VALUE;
+        this.chain = chain;
+    }
+
+    /**
+     * Maps an index written with {@link #writeTo(OutputStream, long)} at
+     * <code>offset</code> of a file, for lookups in place. The index cannot be
+     * added to, and stays valid after <code>channel</code> is closed.
+     *
+     * @param capacity the {@link #capacity()} of the index written
+     * @param size the {@link #size()} of the index written
+     * @param values the number of chained values written, or 0
+     */
+    static OffHeapIndex map(FileChannel channel, long offset, long capacity, long size, long values) throws IOException {
+        int pageShift = Math.min(TABLE_PAGE_SHIFT, Long.numberOfTrailingZeros(capacity));
+        ByteBuffer[] table = new ByteBuffer[(int) (capacity >>> pageShift)];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, 16 << pageShift);
+            offset += 16 << pageShift;
+        }
+        ByteBuffer[] chain = null;
+        if (values > 0) {
+            chain = new ByteBuffer[(int) ((values - 1) >>> CHAIN_PAGE_SHIFT) + 1];
+            for (int i = 0; i < chain.length; i++) {
+                long bytes = Math.min(8L << CHAIN_PAGE_SHIFT, 8 * values - ((long) i << CHAIN_PAGE_SHIFT + 3));
+                chain[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+                offset += bytes;
+            }
+        }
+        return new OffHeapIndex(table, pageShift, size, chain);
+    }
+
+    /**
+     * Returns <code>recycled</code> cleared for reuse with about
+     * <code>expectedSize</code> keys, if it is writable, chained as asked and
+     * has its pages in <code>channel</code>, or in direct memory if
+     * <code>null</code>; otherwise a new index.
+     */
+    static OffHeapIndex recycle(OffHeapIndex recycled, long expectedSize, boolean chained, FileChannel channel) {
+        if (recycled == null || !recycled.writable || recycled.channel != channel
+                || (recycled.chain != null) != chained)
+            return new OffHeapIndex(expectedSize, chained, channel);
+        recycled.clear(expectedSize);
+        return recycled;
+    }
+
+    /**
+     * Removes all keys. The table is kept unless it is too small, or so
+     * large that clearing it would cost more than allocating a new one.
+     * The chain is kept as is, since values are linked before they are read.
+     */
+    private void clear(long expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Invalid size");
+        long capacity = capacityFor(expectedSize);
+        long current = mask + 1;
+        if (capacity > current || capacity < current >> 4) {
+            if (tableOffsets != null) {
+                for (long offset : tableOffsets)
+                    release(offset, 16L << pageShift);
+            }
+            allocate(capacity);
+        } else {
+            for (ByteBuffer page : table) {
+                for (int off = 0; off < page.capacity(); off += 8)
+                    page.putLong(off, 0);
+            }
+        }
+        size = 0;
+        chainSize = expectedSize;
+    }
+
+    /**
+     * Returns an index sharing the table of this one, without the chain.
+     * It must only be read.
+     */
+    OffHeapIndex unchained() {
+        return chain == null ? this : new OffHeapIndex(table, pageShift, size, null);
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeTo(OutputStream, long)} writes
+     * for a chained index.
+     */
+    static long byteSize(long capacity, long values) {
+        return 16 * capacity + 8 * values;
+    }
+
+    /**
+     * Writes the table, followed by the chain of the values up to
+     * <code>values</code> if the index is chained.
+     */
+    void writeTo(OutputStream out, long values) throws IOException {
+        byte[] buf = new byte[8192];
+        for (ByteBuffer page : table)
+            write(out, page.duplicate(), buf);
+        if (chain != null) {
+            for (int i = 0; values > 0; i++) {
+                ByteBuffer page = chain[i].duplicate();
+                page.clear().limit((int) Math.min(page.capacity(), 8 * values));
+                write(out, page, buf);
+                values -= page.limit() / 8;
+            }
+        }
+    }
+
+    private static void write(OutputStream out, ByteBuffer bb, byte[] buf) throws IOException {
+        while (bb.hasRemaining()) {
+            int n = Math.min(buf.length, bb.remaining());
+            bb.get(buf, 0, n);
+            out.write(buf, 0, n);
+        }
+    }
+
+    private static long capacityFor(long expectedSize) {
+        // load factor of 3/4
+        long wanted = expectedSize / 3 * 4 + 4;
+        long capacity = MIN_CAPACITY;
+        while (capacity < wanted)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(long capacity) {
+        pageShift = Math.min(tablePageShift, Long.numberOfTrailingZeros(capacity));
+        int pages = (int) (capacity >>> pageShift);
+        table = new ByteBuffer[pages];
+        if (channel != null)
+            tableOffsets = new long[pages];
+        for (int i = 0; i < pages; i++) {
+            if (channel == null) {
+                table[i] = ByteBuffer.allocateDirect(16 << pageShift);
+            } else {
+                tableOffsets[i] = region(16 << pageShift);
+                table[i] = map(tableOffsets[i], 16 << pageShift);
+            }
+        }
+        mask = capacity - 1;
+        threshold = capacity / 4 * 3;
+    }
+
+    /**
+     * Returns the file offset of a region for a page: the start of the first
+     * free region large enough, or else the end of the file.
+     */
+    private long region(int bytes) {
+        for (Iterator<Map.Entry<Long, Long>> it = free.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, Long> region = it.next();
+            long offset = region.getKey();
+            long length = region.getValue();
+            if (length < bytes)
+                continue;
+            it.remove();
+            if (length > bytes)
+                free.put(offset + bytes, length - bytes);
+            return offset;
+        }
+        long offset = fileOffset;
+        fileOffset += bytes;
+        return offset;
+    }
+
+    /**
+     * Maps a zeroed page. Mapping past the end of the file grows it with
+     * zeros, reused regions are cleared.
+     */
+    private ByteBuffer map(long offset, int bytes) {
+        try {
+            boolean reused = offset < channel.size();
+            ByteBuffer page = channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+            if (reused) {
+                for (int i = 0; i < bytes; i += 8)
+                    page.putLong(i, 0);
+            }
+            return page;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Adds a region no longer used to the free regions, merged with its
+     * neighbours.
+     */
+    private void release(long offset, long bytes) {
+        Map.Entry<Long, Long> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            offset = before.getKey();
+            bytes += before.getValue();
+        }
+        Long after = free.remove(offset + bytes);
+        if (after != null)
+            bytes += after;
+        free.put(offset, bytes);
+    }
+
+    private static long slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private ByteBuffer tablePage(long i) {
+        return table[(int) (i >>> pageShift)];
+    }
+
+    private int tableOffset(long i) {
+        return (int) (i & ((1L << pageShift) - 1)) << 4;
+    }
+
+    /**
+     * Returns the value of a key, or {@link #NO_VALUE}.
+     */
+    public long get(long key) {
+        long i = slot(key) & mask;
+        while (true) {
+            ByteBuffer page = tablePage(i);
+            int off = tableOffset(i);
+            long v = page.getLong(off + 8);
+            if (v == 0)
+                return NO_VALUE;
+            if (page.getLong(off) == key)
+                return v - 1;
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Associates a non-negative value with a key.
+     * @return the previous value, or {@link #NO_VALUE}
+     */
+    public long add(long key, long value) {
+        if (value < 0 || value == Long.MAX_VALUE)
+            throw new IllegalArgumentException("value " + value);
+        long previous = put(key, value);
+        if (chain != null)
+            link(value, previous);
+        return previous;
+    }
+
+    private long put(long key, long value) {
+        long i = slot(key) & mask;
+        while (true) {
+            ByteBuffer page = tablePage(i);
+            int off = tableOffset(i);
+            long v = page.getLong(off + 8);
+            if (v == 0)
+                break;
+            if (page.getLong(off) == key) {
+                page.putLong(off + 8, value + 1);
+                return v - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size >= threshold) {
+            rehash((mask + 1) << 1);
+            return put(key, value);
+        }
+        ByteBuffer page = tablePage(i);
+        int off = tableOffset(i);
+        page.putLong(off, key);
+        page.putLong(off + 8, value + 1);
+        size++;
+        return NO_VALUE;
+    }
+
+    private void rehash(long capacity) {
+        final ByteBuffer[] old = table;
+        final long[] oldOffsets = tableOffsets;
+        final int oldShift = pageShift;
+        allocate(capacity);
+        for (ByteBuffer page : old) {
+            for (int off = 0; off < 16 << oldShift; off += 16) {
+                long v = page.getLong(off + 8);
+                if (v == 0)
+                    continue;
+                long key = page.getLong(off);
+                long i = slot(key) & mask;
+                while (tablePage(i).getLong(tableOffset(i) + 8) != 0)
+                    i = (i + 1) & mask;
+                tablePage(i).putLong(tableOffset(i), key);
+                tablePage(i).putLong(tableOffset(i) + 8, v);
+            }
+        }
+        if (oldOffsets != null) {
+            for (long offset : oldOffsets)
+                release(offset, 16L << oldShift);
+        }
+    }
+
+    private void link(long value, long previous) {
+        int page = (int) (value >>> CHAIN_PAGE_SHIFT);
+        int off = (int) (value & ((1 << CHAIN_PAGE_SHIFT) - 1)) << 3;
+        if (page >= chain.length || off >= chain[page].capacity())
+            growChain(page, off + 8);
+        chain[page].putLong(off, previous);
+    }
+
+    /**
+     * Grows the chain so that <code>page</code> holds at least
+     * <code>bytes</code>. Pages start at the size of the values expected in
+     * them, so small indexes take little memory, and are doubled up to the
+     * full size. Pages before the last are full.
+     */
+    private void growChain(int page, int bytes) {
+        if (page >= chain.length) {
+            chain = Arrays.copyOf(chain, page + 1);
+            if (chainOffsets != null)
+                chainOffsets = Arrays.copyOf(chainOffsets, page + 1);
+        }
+        int full = 8 << CHAIN_PAGE_SHIFT;
+        for (int i = 0; i < page; i++) {
+            if (chain[i] == null || chain[i].capacity() < full)
+                growChainPage(i, full);
+        }
+        int capacity = chain[page] == null ? 0 : chain[page].capacity();
+        if (capacity < bytes) {
+            long wanted = capacity == 0 ? 8 * Math.max(chainSize - ((long) page << CHAIN_PAGE_SHIFT), MIN_CAPACITY)
+                    : 2L * capacity;
+            growChainPage(page, (int) Math.max(Math.min(full, wanted), bytes));
+        }
+    }
+
+    /**
+     * Replaces a page of the chain with a larger one holding its values.
+     */
+    private void growChainPage(int i, int bytes) {
+        ByteBuffer old = chain[i];
+        ByteBuffer grown;
+        long offset = 0;
+        if (channel == null) {
+            grown = ByteBuffer.allocateDirect(bytes);
+        } else {
+            offset = region(bytes);
+            grown = map(offset, bytes);
+        }
+        if (old != null) {
+            ByteBuffer values = old.duplicate();
+            values.clear();
+            grown.put(values);
+            grown.clear();
+        }
+        if (channel != null) {
+            if (old != null)
+                release(chainOffsets[i], old.capacity());
+            chainOffsets[i] = offset;
+        }
+        chain[i] = grown;
+    }
+
+    /**
+     * Returns the value replaced when <code>value</code> was added, or
+     * {@link #NO_VALUE} if there was none or values are not chained.
+     */
+    public long previous(long value) {
+        if (chain == null)
+            return NO_VALUE;
+        return chain[(int) (value >>> CHAIN_PAGE_SHIFT)].getLong((int) (value & ((1 << CHAIN_PAGE_SHIFT) - 1)) << 3);
+    }
+
+    /**
+     * Returns the number of keys.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of slots of the table.
+     */
+    public long capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns a debug <code>String</code>.
+     */
+    @Override
+    public String toString()
+    {
+        return "OffHeapIndex" +
+            " size=" + this.size +
+            " capacity=" + (this.mask + 1) +
+            " pages=" + this.table.length +
+            "";
+    }
+
+}
@@ -30,6 +30,8 @@ package com.nothome.delta;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 
 /**
@@ -55,6 +57,22 @@ public class RandomAccessFileSeekableSource implements SeekableSource {
         return raf.read(b, off, len);
     }
 
+    public int read(long pos, ByteBuffer bb) throws IOException {
+        return raf.getChannel().read(bb, pos);
+    }
+
+    /**
+     * Transfers with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * which the system may do without copying through user space.
+     */
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        FileChannel channel = raf.getChannel();
+        long c = channel.transferTo(pos, count, target);
+        if (c == 0 && count > 0 && pos >= channel.size())
+            return -1;
+        return c;
+    }
+
     public long length() throws IOException {
         return raf.length();
     }
@@ -64,7 +82,9 @@ public class RandomAccessFileSeekableSource implements SeekableSource {
     }
 
     public int read(ByteBuffer bb) throws IOException {
-        int c = raf.read(bb.array(), bb.position(), bb.remaining());
+        if (!bb.hasArray())
+            return raf.getChannel().read(bb);
+        int c = raf.read(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
         if (c == -1)
             return -1;
         bb.position(bb.position() + c);
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rolling hash used for the block checksums of a {@link Checksum}.
+ * <p>
+ * The source index and the target scan must use the same hash. Every hit
+ * is verified against the source bytes, so a weaker hash only costs time,
+ * in failed verifications (see {@link Delta#getVerificationFailures()}),
+ * never correctness; the patch format does not depend on the hash.
+ */
+public abstract class RollingHash {
+
+    /**
+     * The original 32 bit Adler style checksum, the default. Patches
+     * computed with it are the same as those of earlier versions.
+     */
+    public static final RollingHash ADLER32 = new Adler32();
+
+    /**
+     * A 64 bit Rabin-Karp hash, with far fewer collisions on large sources.
+     */
+    public static final RollingHash RABIN_KARP64 = new RabinKarp64();
+
+    private final String name;
+
+    RollingHash(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the hash of <code>len</code> bytes of an array.
+     */
+    public abstract long hash(byte[] b, int off, int len);
+
+    /**
+     * Returns the hash of the next <code>len</code> bytes of the buffer,
+     * advancing its position.
+     */
+    public abstract long hash(ByteBuffer bb, int len);
+
+    /**
+     * Rolls a hash of <code>len</code> bytes on by one byte.
+     * Scans should use a {@link #roller(int)}, which does not recompute the
+     * constants for the length.
+     * @param hash initial hash
+     * @param out byte leaving view
+     * @param in byte entering view
+     * @param len size of the view
+     * @return new hash
+     */
+    public long roll(long hash, byte out, byte in, int len) {
+        return roller(len).roll(hash, out, in);
+    }
+
+    /**
+     * Returns a roller for views of <code>len</code> bytes.
+     */
+    public abstract Roller roller(int len);
+
+    /**
+     * Rolls hashes of a fixed length on by one byte. Rollers hold no
+     * mutable state and can be shared between threads.
+     */
+    public abstract static class Roller {
+
+        /**
+         * Rolls a hash on by one byte.
+         * @param hash initial hash
+         * @param out byte leaving view
+         * @param in byte entering view
+         * @return new hash
+         */
+        public abstract long roll(long hash, byte out, byte in);
+
+    }
+
+    /**
+     * Returns the name of this hash.
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static class Adler32 extends RollingHash {
+
+        Adler32() {
+            super("adler32");
+        }
+
+        @Override
+        public long hash(byte[] b, int off, int len) {
+            return Checksum.queryChecksum(b, off, len);
+        }
+
+        @Override
+        public long hash(ByteBuffer bb, int len) {
+            return Checksum.queryChecksum0(bb, len);
+        }
+
+        @Override
+        public long roll(long hash, byte out, byte in, int len) {
+            return Checksum.incrementChecksum(hash, out, in, len);
+        }
+
+        @Override
+        public Roller roller(final int len) {
+            return new Roller() {
+                @Override
+                public long roll(long hash, byte out, byte in) {
+                    return Checksum.incrementChecksum(hash, out, in, len);
+                }
+            };
+        }
+
+    }
+
+    /**
+     * Polynomial hash modulo 2^64 over random 64 bit byte values.
+     * Whole blocks are hashed four bytes per step.
+     */
+    private static class RabinKarp64 extends RollingHash {
+
+        private static final long B = 0x9E3779B97F4A7C15L;
+        private static final long B2 = B * B;
+        private static final long B3 = B2 * B;
+        private static final long B4 = B3 * B;
+
+        private static final long[] T = new long[256];
+
+        static {
+            // SplitMix64, fixed seed
+            long x = 0x5DEECE66DL;
+            for (int i = 0; i < T.length; i++) {
+                long z = (x += 0x9E3779B97F4A7C15L);
+                z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+                z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+                T[i] = z ^ (z >>> 31);
+            }
+        }
+
+        RabinKarp64() {
+            super("rabin-karp64");
+        }
+
+        @Override
+        public long hash(byte[] b, int off, int len) {
+            long h = 0;
+            int end = off + len;
+            int i = off;
+            for (; i <= end - 4; i += 4) {
+                h = h * B4 + T[b[i] & 0xff] * B3 + T[b[i + 1] & 0xff] * B2
+                        + T[b[i + 2] & 0xff] * B + T[b[i + 3] & 0xff];
+            }
+            for (; i < end; i++)
+                h = h * B + T[b[i] & 0xff];
+            return h;
+        }
+
+        @Override
+        public long hash(ByteBuffer bb, int len) {
+            if (bb.hasArray()) {
+                int p = bb.position();
+                long h = hash(bb.array(), bb.arrayOffset() + p, len);
+                bb.position(p + len);
+                return h;
+            }
+            long h = 0;
+            for (int i = 0; i < len; i++)
+                h = h * B + T[bb.get() & 0xff];
+            return h;
+        }
+
+        @Override
+        public Roller roller(int len) {
+            final long power = pow(len);
+            return new Roller() {
+                @Override
+                public long roll(long hash, byte out, byte in) {
+                    return hash * B - T[out & 0xff] * power + T[in & 0xff];
+                }
+            };
+        }
+
+        private static long pow(int len) {
+            long r = 1;
+            long b = B;
+            for (int e = len; e != 0; e >>>= 1) {
+                if ((e & 1) != 0)
+                    r *= b;
+                b *= b;
+            }
+            return r;
+        }
+
+    }
+
+}
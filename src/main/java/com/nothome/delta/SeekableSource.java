@@ -30,6 +30,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * For sources of random-access data, such as {@link RandomAccessFile}.
@@ -47,5 +48,49 @@ public interface SeekableSource extends Closeable {
      * and EOF was reached.
      */
     int read(ByteBuffer bb) throws IOException;
+
+    /**
+     * Reads up to {@link ByteBuffer#remaining()} bytes starting at
+     * <code>pos</code>, returning the number of bytes read, or -1 if no bytes
+     * were read and EOF was reached.
+     * <p>
+     * Implementations overriding this method leave the position of
+     * {@link #read(ByteBuffer)} alone and may be called by several threads
+     * at once. The default implementation seeks and reads while holding the
+     * lock of this source.
+     */
+    default int read(long pos, ByteBuffer bb) throws IOException {
+        synchronized (this) {
+            seek(pos);
+            return read(bb);
+        }
+    }
+
+    /**
+     * Writes up to <code>count</code> bytes starting at <code>pos</code> to
+     * <code>target</code>, returning the number of bytes written, or -1 if
+     * no bytes were written and EOF was reached. Leaves the position of
+     * {@link #read(ByteBuffer)} alone, like {@link #read(long, ByteBuffer)}.
+     * <p>
+     * The default implementation reads through a temporary heap buffer.
+     * Implementations override it to avoid the copy, e.g. with
+     * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}.
+     */
+    default long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate((int) Math.min(count, 1 << 16));
+        int c = read(pos, bb);
+        bb.flip();
+        while (bb.hasRemaining())
+            target.write(bb);
+        return c;
+    }
+
+    /**
+     * Returns the total length of the source, or -1 if it is not known.
+     * Used as a sizing hint only.
+     */
+    default long length() throws IOException {
+        return -1;
+    }
     
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Checksum index of a source, which can be saved and reused for many
+ * deltas against that source.
+ * <p>
+ * The binary format is a 40 byte header (magic <code>"XDSG"</code>, version,
+ * chunk size, block count, source length, table capacity, key count)
+ * followed by the pages of an {@link OffHeapIndex} of the block checksums
+ * and its chain, all big-endian. A signature file is memory-mapped and
+ * looked up in place, without building a table for each delta.
+ *
+ * @see Delta#doCompute(SourceSignature, SeekableSource, java.io.InputStream, DiffWriter)
+ */
+public class SourceSignature {
+
+    private static final int MAGIC = 0x58445347;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+
+    private final int chunkSize;
+    private final int blockCount;
+    private final long length;
+    private final OffHeapIndex index;
+
+    private SourceSignature(int chunkSize, int blockCount, long length, OffHeapIndex index) {
+        this.chunkSize = chunkSize;
+        this.blockCount = blockCount;
+        this.length = length;
+        this.index = index;
+    }
+
+    /**
+     * Computes the signature of a source.
+     */
+    public static SourceSignature compute(SeekableSource source, int chunkSize) throws IOException {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Invalid size");
+        long length = source.length();
+        final OffHeapIndex index = new OffHeapIndex(Math.max(length, 0) / chunkSize, true);
+        final long[] count = new long[1];
+        Checksum.hashBlocks(source, chunkSize, RollingHash.ADLER32, hash -> {
+            if (count[0] >= Integer.MAX_VALUE - 1)
+                throw new IllegalStateException("too many blocks");
+            index.add(hash, count[0]++);
+        });
+        return new SourceSignature(chunkSize, (int) count[0], count[0] * chunkSize, index);
+    }
+
+    /**
+     * Maps a signature file.
+     */
+    public static SourceSignature read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+                throw new IOException("signature too short: " + file);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("not a signature file: " + file);
+            int chunkSize = header.getInt();
+            int blockCount = header.getInt();
+            long length = header.getLong();
+            long capacity = header.getLong();
+            long keys = header.getLong();
+            if (chunkSize <= 0 || blockCount < 0 || capacity < 16 || Long.bitCount(capacity) != 1
+                    || keys < 0 || keys > blockCount
+                    || size != HEADER_SIZE + OffHeapIndex.byteSize(capacity, blockCount))
+                throw new IOException("corrupt signature file: " + file);
+            return new SourceSignature(chunkSize, blockCount, length,
+                    OffHeapIndex.map(channel, HEADER_SIZE, capacity, keys, blockCount));
+        }
+    }
+
+    /**
+     * Writes this signature.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream os = new DataOutputStream(out);
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeInt(chunkSize);
+        os.writeInt(blockCount);
+        os.writeLong(length);
+        os.writeLong(index.capacity());
+        os.writeLong(index.size());
+        index.writeTo(os, blockCount);
+        os.flush();
+    }
+
+    /**
+     * Returns the index of the block checksums, optionally without the chain
+     * of blocks sharing a checksum. It must only be read.
+     */
+    OffHeapIndex index(boolean chained) {
+        return chained ? index : index.unchained();
+    }
+
+    /**
+     * Returns the chunk size the checksums were computed with.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Returns the number of blocks.
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Returns the length of the indexed part of the source, that is the block
+     * count times the chunk size.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns a debug <code>String</code>.
+     */
+    @Override
+    public String toString()
+    {
+        return "SourceSignature" +
+            " chunkSize=" + this.chunkSize +
+            " blocks=" + this.blockCount +
+            "";
+    }
+
+}
@@ -70,6 +70,10 @@ public class CharBufferSeekableSource implements SeekableSource {
         return cur.read(charbuffer);
     }
 
+    public long length() {
+        return cb.limit();
+    }
+
     public void close() throws IOException {
     }
 }
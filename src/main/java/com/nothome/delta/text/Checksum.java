@@ -25,16 +25,20 @@
 
 package com.nothome.delta.text;
 
+import com.nothome.delta.LongIntHashMap;
+
 import java.io.IOException;
 import java.nio.CharBuffer;
-import java.util.HashMap;
 
 /**
  * Checksum that uses character streams.
  */
 public class Checksum {
 
-    protected HashMap<Long, Integer> checksums = new HashMap<>();
+    /**
+     * Index of the blocks by checksum.
+     */
+    private final LongIntHashMap checksums;
     
     private static final char[] single_hash = com.nothome.delta.Checksum.getSingleHash();
     
@@ -43,6 +47,15 @@ public class Checksum {
      * <code>chunkSize</code> * i is inserted into an array at index i.
      */
     public Checksum(Readable source, int chunkSize) throws IOException {
+        this(source, chunkSize, -1);
+    }
+
+    /**
+     * Initialize checksums for source, sizing the index for
+     * <code>sourceLength</code> characters, or -1 if not known.
+     */
+    public Checksum(Readable source, int chunkSize, long sourceLength) throws IOException {
+        checksums = new LongIntHashMap(sourceLength <= 0 ? 0 : (int) Math.min(sourceLength / chunkSize, Integer.MAX_VALUE - 1));
         CharBuffer bb = CharBuffer.allocate(chunkSize * 2);
         int count = 0;
         while (true) {
@@ -87,8 +100,6 @@ public class Checksum {
     }
     
     public int findChecksumIndex(long hashf) {
-        if (!checksums.containsKey(hashf))
-            return -1;
         return checksums.get(hashf);
     }
 
@@ -34,6 +34,7 @@
 
 package com.nothome.delta.text;
 
+ import com.nothome.delta.ArrayMatch;
  import xland.ioutils.xdelta.wrapper.JarPatcherMain;
 
  import java.io.*;
@@ -131,7 +132,7 @@ public class Delta {
         private final SeekableSource source;
         
         public SourceState(SeekableSource source) throws IOException {
-            checksum = new Checksum(source, S);
+            checksum = new Checksum(source, S, source.length());
             this.source = source;
             source.seek(0);
         }
@@ -239,11 +240,15 @@ public class Delta {
                         return match;
                     }
                 }
-                if (sbuf.get() != tbuf.get()) {
-                    tbuf.position(tbuf.position() - 1);
+                int n = Math.min(sbuf.remaining(), tbuf.remaining());
+                int m = ArrayMatch.commonPrefix(
+                        sbuf.array(), sbuf.arrayOffset() + sbuf.position(), sbuf.arrayOffset() + sbuf.limit(),
+                        tbuf.array(), tbuf.arrayOffset() + tbuf.position(), tbuf.arrayOffset() + tbuf.limit());
+                sbuf.position(sbuf.position() + m);
+                tbuf.position(tbuf.position() + m);
+                match += m;
+                if (m < n)
                     return match;
-                }
-                match++;
             }
         }
 
@@ -35,5 +35,12 @@ public interface SeekableSource extends Readable, Closeable {
      * Sets the position for the next read operation.
      */
     void seek(long pos) throws IOException;
+
+    /**
+     * Returns the total length of the source, or -1 if it is not known.
+     */
+    default long length() throws IOException {
+        return -1;
+    }
     
 }
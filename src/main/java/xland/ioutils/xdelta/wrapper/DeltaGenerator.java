@@ -22,6 +22,8 @@
  */
 package xland.ioutils.xdelta.wrapper;
 
+import com.nothome.delta.DeltaStats;
+
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -110,7 +112,9 @@ public class DeltaGenerator {
                 try (ZipFile z1 = new ZipFile(f1);
                      ZipFile z2 = new ZipFile(f2);
                      ZipOutputStream zos = new ZipOutputStream(wrappedOutputStream(os))) {
-                    JarDeltaV2.computeDelta(z1, z2, zos);
+                    DeltaStats stats = verbose ? new DeltaStats() : null;
+                    JarDeltaV2.computeDelta(z1, z2, zos, JarDeltaV2.DEFAULT_MAX_PATCH_RATIO, stats);
+                    JarPatcherMain.log(verbose, stats);
                 } finally {
                     os.closeEntry();
                 }
@@ -24,8 +24,10 @@
 package xland.ioutils.xdelta.wrapper;
 
 import com.nothome.delta.Delta;
+import com.nothome.delta.DeltaListener;
 import com.nothome.delta.DiffWriter;
 import com.nothome.delta.GDiffWriter;
+import com.nothome.delta.LimitExceededException;
 
 import java.io.*;
 import java.util.Enumeration;
@@ -41,6 +43,7 @@ public class JarDeltaV2 {
      * {@link com.nothome.delta.Delta#doCompute(SyncPoolOutputStream, SyncPoolOutputStream, DiffWriter)}.
      * If the files are equal, nothing is written to the output for them.
      * Files contained only in target and files to small for {@link com.nothome.delta.Delta} are copied to output.
+     * Files whose patch would take more than {@link #DEFAULT_MAX_PATCH_RATIO} of their size are copied as well.
      * Files contained only in source are ignored.
      * At last a list of all files contained in target is written to <code>META-INF/file.list</code> in output.
      *
@@ -50,6 +53,26 @@ public class JarDeltaV2 {
      * @throws IOException if an error occures reading or writing any entry in a zip file
      */
 	public static void computeDelta(ZipFile source, ZipFile target, ZipOutputStream output) throws IOException {
+		computeDelta(source, target, output, DEFAULT_MAX_PATCH_RATIO, null);
+	}
+
+    /**
+     * Computes the binary differences of two zip files, like {@link #computeDelta(ZipFile, ZipFile, ZipOutputStream)}.
+     * Computing a patch is given up as soon as it takes more than <code>maxPatchRatio</code> of the target
+     * file's size, and the file is copied to output instead.
+     *
+     * @param source the original zip file
+     * @param target a modification of the original zip file
+     * @param output the zip file where the patches have to be written to
+     * @param maxPatchRatio the most a patch may take relative to its target file, at most 1
+     * @param listener receives the statistics of each patch computed, e.g. a
+     *                 {@link com.nothome.delta.DeltaStats} adding them up, or <code>null</code>
+     * @throws IOException if an error occures reading or writing any entry in a zip file
+     */
+	public static void computeDelta(ZipFile source, ZipFile target, ZipOutputStream output, double maxPatchRatio,
+									DeltaListener listener) throws IOException {
+		if (!(maxPatchRatio > 0 && maxPatchRatio <= 1))
+			throw new IllegalArgumentException("Invalid ratio: " + maxPatchRatio);
 		final PatchInfo patchInfo = new PatchInfo();
 		final NameAllocator rawNamePool = new NameAllocator("raw/", ".bin");
 		final NameAllocator patchNamePool = new NameAllocator("patch/", ".bin");
@@ -63,6 +86,18 @@ public class JarDeltaV2 {
 
 		ZipEntry nilEntry = null;
 
+		// reused for every entry
+		final SyncPoolOutputStream targetBuf = new SyncPoolOutputStream(BUF_INITIAL_CAPACITY);
+		final SyncPoolOutputStream sourceBuf = new SyncPoolOutputStream(BUF_INITIAL_CAPACITY);
+		final Delta d = new Delta();
+		d.setTrimCommon(true);
+		d.setExtendBackward(true);
+		d.setListener(listener);
+		// patches are held back until they are known to be small enough
+		final SyncPoolOutputStream patchBuf = new SyncPoolOutputStream(BUF_INITIAL_CAPACITY);
+		final DataOutputStream patchOutput = new DataOutputStream(patchBuf);
+		GDiffWriter writer = null;
+
 		for (Enumeration<? extends ZipEntry> enumer = target.entries(); enumer.hasMoreElements();) {
 			ZipEntry targetEntry = enumer.nextElement();
 			ZipEntry sourceEntry = source.getEntry(targetEntry.getName());
@@ -83,15 +118,15 @@ public class JarDeltaV2 {
 				continue;
 			}
 
-			final SyncPoolOutputStream targetBuf = new SyncPoolOutputStream(BUF_INITIAL_CAPACITY);
+			targetBuf.reset();
 			try (InputStream targetStream = target.getInputStream(targetEntry)) {
-				JarPatcherMain.transferTo(targetStream, targetBuf);
+				targetBuf.readFrom(targetStream);
 			}
 
 			if (sourceEntry != null) {
-				final SyncPoolOutputStream sourceBuf = new SyncPoolOutputStream(BUF_INITIAL_CAPACITY);
+				sourceBuf.reset();
 				try (InputStream sourceStream = source.getInputStream(sourceEntry)) {
-					JarPatcherMain.transferTo(sourceStream, sourceBuf);
+					sourceBuf.readFrom(sourceStream);
 				}
 
 				if (targetBuf.contentEquals(sourceBuf)) {
@@ -99,15 +134,24 @@ public class JarDeltaV2 {
 					continue;
 				}
 
-				if (sourceEntry.getSize() <= Delta.DEFAULT_CHUNK_SIZE || targetEntry.getSize() <= Delta.DEFAULT_CHUNK_SIZE) {
-					// Do replacement
-					final String place = rawNamePool.nextName();
-					patchInfo.replacement(targetEntry.getName(), place);
-					ZipEntry outputEntry = new ZipEntry(place);
-					outputEntry.setTime(targetEntry.getTime());
-					output.putNextEntry(outputEntry);
-					JarPatcherMain.transferTo(targetBuf.makeInputStream(), output);
-				} else {
+				boolean patched = false;
+				if (sourceEntry.getSize() > Delta.DEFAULT_CHUNK_SIZE && targetEntry.getSize() > Delta.DEFAULT_CHUNK_SIZE) {
+					final long limit = (long) (targetBuf.size() * maxPatchRatio);
+					patchBuf.reset();
+					if (writer == null)
+						writer = new GDiffWriter(patchOutput);
+					else
+						writer.reset(patchOutput);
+					d.setPatchLimit(Math.max(limit, 1));
+					try {
+						d.doCompute(sourceBuf, targetBuf, writer);  // flushes patchOutput
+						patched = patchBuf.size() <= limit;
+					} catch (LimitExceededException e) {
+						// fall back to replacement
+					}
+				}
+
+				if (patched) {
 					// Do GDiff
 					final String place = patchNamePool.nextName();
 					patchInfo.patch(targetEntry.getName(), place);
@@ -115,8 +159,15 @@ public class JarDeltaV2 {
 					ZipEntry outputEntry = new ZipEntry(place);
 					outputEntry.setTime(targetEntry.getTime());
 					output.putNextEntry(outputEntry);
-					Delta d = new Delta();
-					d.doCompute(sourceBuf, targetBuf, new GDiffWriter(output));
+					patchBuf.writeTo(output);
+				} else {
+					// Do replacement
+					final String place = rawNamePool.nextName();
+					patchInfo.replacement(targetEntry.getName(), place);
+					ZipEntry outputEntry = new ZipEntry(place);
+					outputEntry.setTime(targetEntry.getTime());
+					output.putNextEntry(outputEntry);
+					JarPatcherMain.transferTo(targetBuf.makeInputStream(), output);
 				}
 			} else {
 				// Do addition
@@ -134,4 +185,9 @@ public class JarDeltaV2 {
 	}
 
 	static final int BUF_INITIAL_CAPACITY = 1048576;
+
+    /**
+     * The most a patch may take relative to its target file before the file is copied instead.
+     */
+	public static final double DEFAULT_MAX_PATCH_RATIO = 0.75;
 }
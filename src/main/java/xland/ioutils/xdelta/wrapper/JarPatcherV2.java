@@ -55,6 +55,10 @@ public class JarPatcherV2 {
         HashMap<String, String> toReplace = new LinkedHashMap<>(patchInfo.getReplaces());
         HashMap<String, String> toPatch = new LinkedHashMap<>(patchInfo.getPatches());
 
+        // reused for every entry
+        final GDiffPatcher diffPatcher = new GDiffPatcher();
+        final SyncPoolOutputStream sourceBuf = new SyncPoolOutputStream(JarDeltaV2.BUF_INITIAL_CAPACITY);
+
         ZipEntry sourceEntry;
         while ((sourceEntry = source.getNextEntry()) != null) {
             String sourceEntryName = sourceEntry.getName();
@@ -106,13 +110,10 @@ public class JarPatcherV2 {
 
                 try (InputStream patchStream = patch.getInputStream(patchEntry)) {
                     // Do GDiff patch
-                    GDiffPatcher diffPatcher = new GDiffPatcher();
-
-                    try (SyncPoolOutputStream sourceBuf = new SyncPoolOutputStream(JarDeltaV2.BUF_INITIAL_CAPACITY)) {
-                        // Transfer source to buffer
-                        JarPatcherMain.transferTo(source, sourceBuf);
-                        diffPatcher.patch(sourceBuf.makeSeekableSource(), patchStream, output);
-                    }
+                    // Transfer source to buffer
+                    sourceBuf.reset();
+                    sourceBuf.readFrom(source);
+                    diffPatcher.patch(sourceBuf.makeSeekableSource(), patchStream, output);
                 }
                 continue;
             }
@@ -1,5 +1,6 @@
 package xland.ioutils.xdelta.wrapper;
 
+import com.nothome.delta.ArrayMatch;
 import com.nothome.delta.ByteBufferSeekableSource;
 import com.nothome.delta.SeekableSource;
 
@@ -28,9 +29,8 @@ public class SyncPoolOutputStream extends OutputStream {
                 extraDelegate.ensureCapacity((long)size + (long)num);
                 extraDelegate.write(buf, 0, size);
             } else {
-                byte[] oldBuf = buf;
-                buf = new byte[size + num];
-                System.arraycopy(oldBuf, 0, buf, 0, size);
+                // grow geometrically, so that filling a reused buffer settles quickly
+                buf = Arrays.copyOf(buf, Math.max(size + num, (int) Math.min((long) buf.length * 2, EXTRA_BUF_THRESHOLD)));
             }
         }
     }
@@ -78,19 +78,58 @@ public class SyncPoolOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Appends the rest of <code>in</code>, reading straight into the buffer.
+     */
+    public void readFrom(InputStream in) throws IOException {
+        while (extraDelegate == null) {
+            ensureCapacity(1);
+            if (extraDelegate != null)
+                break;
+            int n = in.read(buf, size, buf.length - size);
+            if (n < 0)
+                return;
+            size += n;
+        }
+        JarPatcherMain.transferTo(in, this);
+    }
+
+    /**
+     * Writes the content to <code>out</code>, straight from the buffer.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (extraDelegate == null)
+            out.write(buf, 0, size);
+        else
+            JarPatcherMain.transferTo(makeInputStream(), out);
+    }
+
+    /**
+     * Discards the content, keeping the buffer for reuse.
+     */
+    public void reset() {
+        size = 0;
+        if (extraDelegate != null) {
+            extraDelegate.close();
+            extraDelegate = null;
+        }
+    }
+
     @Override
     public void close() {
         buf = null;
         if (extraDelegate != null) extraDelegate.close();
     }
 
-    private long size() {
+    long size() {
         return extraDelegate == null ? size : extraDelegate.lastCursor;
     }
 
     public boolean contentEquals(SyncPoolOutputStream other) {
         if (other == null) return false;
         if (size() != other.size()) return false;
+        if (extraDelegate == null && other.extraDelegate == null)
+            return ArrayMatch.commonPrefix(buf, 0, size, other.buf, 0, size) == size;
         InputStream thisStream = this.makeInputStream();
         InputStream otherStream = other.makeInputStream();
         while (true) {
@@ -226,38 +265,50 @@ public class SyncPoolOutputStream extends OutputStream {
 
                 @Override
                 public void seek(long pos) throws IOException {
-                    if (currentCursor > size - pos) {
-                        throw new IOException("Cannot seek through " + pos + " bytes because of overflow");
+                    if (pos < 0 || pos > size) {
+                        throw new IOException("Cannot seek to " + pos + ", size is " + size);
                     }
-                    currentCursor += pos;
+                    currentCursor = pos;
                 }
 
                 @Override
                 public int read(ByteBuffer bb) {
-                    if (currentCursor >= size) return -1;
-                    int len = bb.limit();
+                    int len = read(currentCursor, bb);
+                    if (len > 0) currentCursor += len;
+                    return len;
+                }
 
-                    if (len > size - currentCursor) {
-                        len = (int)(size - currentCursor);
+                @Override
+                public int read(long pos, ByteBuffer bb) {
+                    if (pos >= size) return -1;
+                    int len = bb.remaining();
+
+                    if (len > size - pos) {
+                        len = (int)(size - pos);
                     }
 
-                    int overflow = ((int)currentCursor & EXTRA_BUF_MASK) + len - EXTRA_BUF_THRESHOLD;
+                    int overflow = (int) (pos & EXTRA_BUF_MASK) + len - EXTRA_BUF_THRESHOLD;
                     if (overflow > 0) {
                         // read into two parts
-                        readInternal(bb, len - overflow);
-                        readInternal(bb, overflow);
+                        readInternal(pos, bb, len - overflow);
+                        readInternal(pos + len - overflow, bb, overflow);
                     } else {
-                        readInternal(bb, len);
+                        readInternal(pos, bb, len);
                     }
                     return len;
                 }
 
-                private void readInternal(ByteBuffer bb, int len) {
-                    int which = (int)currentCursor >>> EXTRA_BUF_THRESHOLD_BYTES;
-                    int where = (int) (currentCursor & EXTRA_BUF_MASK);
+                private void readInternal(long pos, ByteBuffer bb, int len) {
+                    int which = (int) (pos >>> EXTRA_BUF_THRESHOLD_BYTES);
+                    int where = (int) (pos & EXTRA_BUF_MASK);
                     bb.put(extraBuf[which], where, len);
                 }
 
+                @Override
+                public long length() {
+                    return size;
+                }
+
                 @Override
                 public void close() {
                 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ChecksumTest {
+
+    /**
+     * The index built in parallel finds the same blocks and chains as the
+     * one built serially, over several range tables and with many repeated
+     * blocks.
+     */
+    @Test
+    public void testParallel() throws IOException {
+        Random random = new Random(1);
+        byte[] source = new byte[1 << 20];
+        random.nextBytes(source);
+        for (int i = 0; i < source.length / 5; i++)
+            source[random.nextInt(source.length)] = 0;
+        for (int i = source.length / 3; i < source.length / 2; i++)
+            source[i] = 7;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int stride = 1; stride <= 3; stride += 2) {
+                Checksum serial = new Checksum(new ByteBufferSeekableSource(source), 4, true, stride);
+                Checksum parallel = new Checksum(ByteBuffer.wrap(source), 4, true, pool, stride);
+                for (int block = 0; block < source.length / 4; block += stride) {
+                    long hash = Checksum.queryChecksum(source, block * 4, 4);
+                    assertEquals(serial.findBlock(hash), parallel.findBlock(hash));
+                    assertEquals(serial.nextBlock(block), parallel.nextBlock(block));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that comparing arrays directly writes the same patches as
+ * comparing a seekable source with a target stream, for every option that
+ * promises so.
+ */
+public class DeltaTest {
+
+    private interface Option {
+        void set(Delta delta);
+    }
+
+    private static final int PAIRS = 300;
+
+    /**
+     * Returns bytes from a small alphabet, so blocks repeat.
+     */
+    private static byte[] random(Random random, int length, int alphabet) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = (byte) ('a' + random.nextInt(alphabet));
+        return b;
+    }
+
+    /**
+     * Returns a target made of pieces of the source, new bytes and gaps.
+     */
+    private static byte[] mutate(Random random, byte[] source, int alphabet) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < source.length) {
+            int length = 1 + random.nextInt(200);
+            switch (random.nextInt(5)) {
+            case 0:
+                i += length;
+                break;
+            case 1:
+                out.write(random(random, length, alphabet), 0, length);
+                break;
+            case 2:
+                int from = random.nextInt(source.length);
+                out.write(source, from, Math.min(length, source.length - from));
+                break;
+            default:
+                out.write(source, i, Math.min(length, source.length - i));
+                i += length;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] patch(byte[] source, byte[] patch) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GDiffPatcher().patch(source, new ByteArrayInputStream(patch), out);
+        return out.toByteArray();
+    }
+
+    private static void check(Option option) throws IOException {
+        for (int chunkSize : new int[] { 2, 4, 16 }) {
+            Random random = new Random(chunkSize);
+            for (int i = 0; i < PAIRS; i++) {
+                int alphabet = 2 + random.nextInt(2);
+                byte[] source = random(random, 1 + random.nextInt(6000), alphabet);
+                byte[] target = mutate(random, source, alphabet);
+                Delta delta = new Delta();
+                delta.setChunkSize(chunkSize);
+                option.set(delta);
+
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                GDiffWriter writer = new GDiffWriter(stream);
+                delta.doCompute(new ByteBufferSeekableSource(source), new ByteArrayInputStream(target), writer);
+                writer.flush();
+                ByteArrayOutputStream array = new ByteArrayOutputStream();
+                writer = new GDiffWriter(array);
+                delta.doCompute(source, target, writer);
+                writer.flush();
+
+                assertArrayEquals(stream.toByteArray(), array.toByteArray());
+                assertArrayEquals(target, patch(source, array.toByteArray()));
+            }
+        }
+    }
+
+    @Test
+    public void testDefault() throws IOException {
+        check(delta -> { });
+    }
+
+    @Test
+    public void testMaxCandidates() throws IOException {
+        check(delta -> delta.setMaxCandidates(4));
+    }
+
+    @Test
+    public void testIndexBudget() throws IOException {
+        check(delta -> delta.setIndexBudget(500));
+    }
+
+    @Test
+    public void testExtendBackward() throws IOException {
+        check(delta -> delta.setExtendBackward(true));
+    }
+
+    @Test
+    public void testLookahead() throws IOException {
+        check(delta -> delta.setLookahead(3));
+    }
+
+    @Test
+    public void testRollingHash() throws IOException {
+        check(delta -> delta.setRollingHash(RollingHash.RABIN_KARP64));
+    }
+
+    @Test
+    public void testAll() throws IOException {
+        check(delta -> {
+            delta.setMaxCandidates(4);
+            delta.setIndexBudget(2000);
+            delta.setExtendBackward(true);
+            delta.setLookahead(2);
+        });
+    }
+
+    private static byte[] delta(Delta delta, byte[] source, byte[] target) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        GDiffWriter writer = new GDiffWriter(patch);
+        delta.doCompute(source, target, writer);
+        writer.flush();
+        return patch.toByteArray();
+    }
+
+    /**
+     * One instance reusing its off-heap index, in direct memory or in a
+     * file, writes the same patches as the heap index.
+     */
+    @Test
+    public void testOffHeapIndex() throws IOException {
+        Random random = new Random(5);
+        File file = File.createTempFile("index", ".bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Delta heap = new Delta();
+            Delta direct = new Delta();
+            direct.setOffHeapIndex(true);
+            Delta mapped = new Delta();
+            mapped.setOffHeapIndex(channel);
+            for (int i = 0; i < 100; i++) {
+                byte[] source = random(random, 1 + random.nextInt(random.nextBoolean() ? 100000 : 2000), 3);
+                byte[] target = mutate(random, source, 3);
+                byte[] expected = delta(heap, source, target);
+                assertArrayEquals(expected, delta(direct, source, target));
+                assertArrayEquals(expected, delta(mapped, source, target));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
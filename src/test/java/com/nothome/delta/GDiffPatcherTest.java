@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import static com.nothome.delta.GDiffWriter.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Applies hand-built patches with every command, through buffers small
+ * enough for commands and their fields to straddle refills.
+ */
+public class GDiffPatcherTest {
+
+    private static final int[] BUFFER_SIZES = { 16, 17, 23, 64, GDiffPatcher.DEFAULT_BUFFER_SIZE };
+
+    private final byte[] source = new byte[70000];
+
+    private final Random random = new Random(1);
+
+    public GDiffPatcherTest() {
+        random.nextBytes(source);
+    }
+
+    /**
+     * Builds a patch of random commands, writing the bytes it makes to
+     * <code>target</code>.
+     */
+    private byte[] build(int commands, ByteArrayOutputStream target) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(patch);
+        out.writeInt(0xd1ffd1ff);
+        out.writeByte(4);
+        for (int i = 0; i < commands; i++) {
+            int command = random.nextBoolean() ? 1 + random.nextInt(DATA_MAX)
+                    : DATA_USHORT + random.nextInt(COPY_LONG_INT - DATA_MAX);
+            if (command <= DATA_INT) {
+                int length = command <= DATA_MAX ? command : random.nextInt(300);
+                out.writeByte(command);
+                if (command == DATA_USHORT)
+                    out.writeShort(length);
+                else if (command == DATA_INT)
+                    out.writeInt(length);
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+                out.write(data);
+                target.write(data);
+                continue;
+            }
+            boolean shortOffset = command <= COPY_USHORT_INT;
+            int offset = random.nextInt(shortOffset ? 1 << 16 : source.length);
+            int maxLength = command == COPY_USHORT_UBYTE || command == COPY_INT_UBYTE ? 256 : 1000;
+            int length = Math.min(random.nextInt(maxLength), source.length - offset);
+            out.writeByte(command);
+            if (shortOffset)
+                out.writeShort(offset);
+            else if (command == COPY_LONG_INT)
+                out.writeLong(offset);
+            else
+                out.writeInt(offset);
+            if (command == COPY_USHORT_UBYTE || command == COPY_INT_UBYTE)
+                out.writeByte(length);
+            else if (command == COPY_USHORT_USHORT || command == COPY_INT_USHORT)
+                out.writeShort(length);
+            else
+                out.writeInt(length);
+            target.write(source, offset, length);
+        }
+        out.writeByte(EOF);
+        out.flush();
+        return patch.toByteArray();
+    }
+
+    private byte[] patch(int bufferSize, byte[] patch) throws IOException {
+        GDiffPatcher patcher = new GDiffPatcher();
+        patcher.setBufferSize(bufferSize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        patcher.patch(source, new ByteArrayInputStream(patch), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testCommands() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            ByteArrayOutputStream target = new ByteArrayOutputStream();
+            byte[] patch = build(200, target);
+            for (int size : BUFFER_SIZES)
+                assertArrayEquals(target.toByteArray(), patch(size, patch));
+        }
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        byte[] patch = build(100, target);
+        for (int size : BUFFER_SIZES) {
+            for (int length = 0; length < patch.length; length++) {
+                try {
+                    patch(size, Arrays.copyOf(patch, length));
+                    fail("patch of " + length + " bytes applied");
+                } catch (EOFException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    private static File write(String prefix, byte[] b) throws IOException {
+        File file = File.createTempFile(prefix, ".bin");
+        Files.write(file.toPath(), b);
+        return file;
+    }
+
+    private static byte[] patch(GDiffPatcher patcher, File source, File patch) throws IOException {
+        File output = File.createTempFile("output", ".bin");
+        try {
+            patcher.patch(source, patch, output);
+            return Files.readAllBytes(output.toPath());
+        } finally {
+            output.delete();
+        }
+    }
+
+    /**
+     * Applies patch files in parallel segments of several sizes, with and
+     * without mapping the source, and compares with the serial output.
+     */
+    @Test
+    public void testSegments() throws IOException {
+        File sourceFile = write("source", source);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 5; i++) {
+                ByteArrayOutputStream target = new ByteArrayOutputStream();
+                File patchFile = write("patch", build(300, target));
+                try {
+                    for (int size : new int[] { 16, GDiffPatcher.DEFAULT_BUFFER_SIZE }) {
+                        GDiffPatcher patcher = new GDiffPatcher();
+                        patcher.setBufferSize(size);
+                        byte[] serial = patch(patcher, sourceFile, patchFile);
+                        assertArrayEquals(target.toByteArray(), serial);
+                        for (long segmentSize : new long[] { 1, 100, 5000, 1 << 30 }) {
+                            for (boolean mapFiles : new boolean[] { false, true }) {
+                                patcher.setPool(pool, segmentSize);
+                                patcher.setMapFiles(mapFiles);
+                                assertArrayEquals(serial, patch(patcher, sourceFile, patchFile));
+                            }
+                        }
+                    }
+                } finally {
+                    patchFile.delete();
+                }
+            }
+        } finally {
+            pool.shutdown();
+            sourceFile.delete();
+        }
+    }
+
+    /**
+     * Patches with target copies are applied in order even with a pool.
+     */
+    @Test
+    public void testTargetCopySegments() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            byte[] done = target.toByteArray();
+            if (done.length > 0 && random.nextBoolean()) {
+                int off = random.nextInt(done.length);
+                target.write(done, off, Math.min(done.length - off, 1 + random.nextInt(3000)));
+            } else {
+                int off = random.nextInt(source.length);
+                target.write(source, off, Math.min(source.length - off, random.nextInt(3000)));
+            }
+        }
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        GDiffWriter writer = new GDiffWriter(patch, source.length, 1 << 16);
+        new Delta().doCompute(source, target.toByteArray(), writer);
+        writer.flush();
+        assertEquals(TARGET_COPY_VERSION, patch.toByteArray()[4]);
+
+        File sourceFile = write("source", source);
+        File patchFile = write("patch", patch.toByteArray());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            GDiffPatcher patcher = new GDiffPatcher();
+            for (boolean mapFiles : new boolean[] { false, true }) {
+                patcher.setPool(pool, 100);
+                patcher.setMapFiles(mapFiles);
+                assertArrayEquals(target.toByteArray(), patch(patcher, sourceFile, patchFile));
+            }
+        } finally {
+            pool.shutdown();
+            sourceFile.delete();
+            patchFile.delete();
+        }
+    }
+
+    /**
+     * Patches to a channel, transferring copies from each kind of source.
+     */
+    @Test
+    public void testChannel() throws IOException {
+        File sourceFile = write("source", source);
+        try {
+            for (int i = 0; i < 5; i++) {
+                ByteArrayOutputStream target = new ByteArrayOutputStream();
+                byte[] patch = build(300, target);
+                for (int size : BUFFER_SIZES) {
+                    GDiffPatcher patcher = new GDiffPatcher();
+                    patcher.setBufferSize(size);
+                    SeekableSource[] sources = {
+                        new ByteBufferSeekableSource(source),
+                        new RandomAccessFileSeekableSource(new RandomAccessFile(sourceFile, "r")),
+                        new MappedFileSeekableSource(sourceFile),
+                    };
+                    for (SeekableSource s : sources) {
+                        try {
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                            patcher.patch(s, new ByteArrayInputStream(patch), Channels.newChannel(out));
+                            assertArrayEquals(target.toByteArray(), out.toByteArray());
+                        } finally {
+                            s.close();
+                        }
+                    }
+                }
+            }
+        } finally {
+            sourceFile.delete();
+        }
+    }
+}
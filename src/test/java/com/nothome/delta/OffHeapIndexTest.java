@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class OffHeapIndexTest {
+
+    private static void check(OffHeapIndex index) {
+        LongIntHashMap reference = new LongIntHashMap();
+        long[] previous = new long[300000];
+        Random random = new Random(3);
+        for (int i = 0; i < previous.length; i++) {
+            long key = random.nextInt(100000);
+            previous[i] = index.add(key, i);
+            assertEquals(reference.put(key, i), previous[i]);
+        }
+        for (long key = 0; key < 100000; key++)
+            assertEquals(reference.get(key), index.get(key));
+        for (int i = 0; i < previous.length; i++)
+            assertEquals(previous[i], index.previous(i));
+    }
+
+    @Test
+    public void testDirect() {
+        check(new OffHeapIndex(0, true));
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        File file = File.createTempFile("index", ".bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // stale contents must not show up as entries
+            byte[] stale = new byte[1 << 20];
+            Arrays.fill(stale, (byte) 0x5a);
+            for (int i = 0; i < 64; i++)
+                channel.write(ByteBuffer.wrap(stale));
+            check(new OffHeapIndex(0, true, channel, 12));
+            // 100000 keys end in a table of 1 << 18 entries. Its pages partly
+            // reuse those of the tables replaced before, so the file stays
+            // well below the sum of all table sizes plus the chain.
+            long table = 16L << 18;
+            long chain = 8L << 20;
+            assertTrue("size " + channel.size(), channel.size() < table * 7 / 4 + chain);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * The chain of a small index is sized to its keys rather than taking a
+     * full page.
+     */
+    @Test
+    public void testSmallChain() throws IOException {
+        File file = File.createTempFile("index", ".bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            OffHeapIndex index = new OffHeapIndex(1000, true, channel);
+            for (int i = 0; i < 1000; i++)
+                index.add(i % 10, i);
+            for (int i = 10; i < 1000; i++)
+                assertEquals(i - 10, index.previous(i));
+            assertTrue("size " + channel.size(), channel.size() <= 16 * 2048 + 8 * 1000);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Recycled indexes of any earlier size hold only the new keys.
+     */
+    @Test
+    public void testRecycle() throws IOException {
+        OffHeapIndex index = new OffHeapIndex(0, true);
+        check(index);
+        for (long expected : new long[] { 100000, 0, 1000000 }) {
+            assertSame(index, OffHeapIndex.recycle(index, expected, true, null));
+            check(index);
+        }
+        assertNotSame(index, OffHeapIndex.recycle(index, 0, false, null));
+
+        File file = File.createTempFile("index", ".bin");
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            assertNotSame(index, OffHeapIndex.recycle(index, 0, true, channel));
+            index = new OffHeapIndex(0, true, channel, 12);
+            check(index);
+            for (long expected : new long[] { 100000, 0, 1000000 }) {
+                assertSame(index, OffHeapIndex.recycle(index, expected, true, channel));
+                check(index);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that one {@link Delta}, {@link GDiffWriter} and
+ * {@link GDiffPatcher} reused across many small entries, as the jar
+ * wrappers do, allocate next to nothing per entry.
+ */
+public class ReuseTest {
+
+    private static final int ENTRIES = 2000;
+    /**
+     * Bytes allocated per entry allowed for computing or applying a patch.
+     * New instances for every entry take about 8 KB and 130 KB.
+     */
+    private static final long MAX_ALLOCATED = 4096;
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testAllocation() throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        Random random = new Random(1);
+        byte[][] sources = new byte[ENTRIES][];
+        byte[][] targets = new byte[ENTRIES][];
+        byte[][] patches = new byte[ENTRIES][];
+        for (int i = 0; i < ENTRIES; i++) {
+            sources[i] = new byte[200 + random.nextInt(8000)];
+            for (int k = 0; k < sources[i].length; k++)
+                sources[i][k] = (byte) ('a' + random.nextInt(16));
+            targets[i] = sources[i].clone();
+            targets[i][random.nextInt(targets[i].length)] = 'Z';
+        }
+
+        Delta delta = new Delta();
+        ByteArrayOutputStream patch = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(patch);
+        GDiffWriter writer = new GDiffWriter(out);
+        GDiffPatcher patcher = new GDiffPatcher();
+        ByteArrayOutputStream result = new ByteArrayOutputStream(1 << 16);
+        long computed = 0;
+        long patched = 0;
+        // the first round grows the reused tables and buffers
+        for (int round = 0; round < 2; round++) {
+            computed = 0;
+            patched = 0;
+            for (int i = 0; i < ENTRIES; i++) {
+                patch.reset();
+                long start = allocatedBytes();
+                writer.reset(out);
+                delta.doCompute(sources[i], targets[i], writer);
+                computed += allocatedBytes() - start;
+                if (patches[i] == null)
+                    patches[i] = patch.toByteArray();
+
+                ByteArrayInputStream in = new ByteArrayInputStream(patches[i]);
+                result.reset();
+                start = allocatedBytes();
+                patcher.patch(sources[i], in, result);
+                patched += allocatedBytes() - start;
+                if (round == 0)
+                    assertArrayEquals(targets[i], result.toByteArray());
+            }
+        }
+        assertTrue("computing allocated " + computed / ENTRIES + " bytes per entry",
+                computed / ENTRIES < MAX_ALLOCATED);
+        assertTrue("patching allocated " + patched / ENTRIES + " bytes per entry",
+                patched / ENTRIES < MAX_ALLOCATED);
+    }
+}
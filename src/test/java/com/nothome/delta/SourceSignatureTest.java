@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SourceSignatureTest {
+
+    private static byte[] delta(SourceSignature signature, byte[] source, byte[] target) throws IOException {
+        Delta delta = new Delta();
+        delta.setMaxCandidates(4);
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        GDiffWriter writer = new GDiffWriter(patch);
+        if (signature == null)
+            delta.doCompute(new ByteBufferSeekableSource(source), new ByteArrayInputStream(target), writer);
+        else
+            delta.doCompute(signature, new ByteBufferSeekableSource(source), new ByteArrayInputStream(target), writer);
+        writer.flush();
+        return patch.toByteArray();
+    }
+
+    /**
+     * A delta against a saved and mapped signature is the same as one that
+     * indexes the source.
+     */
+    @Test
+    public void testReadWrite() throws IOException {
+        Random random = new Random(4);
+        byte[] source = new byte[100000];
+        for (int i = 0; i < source.length; i++)
+            source[i] = (byte) random.nextInt(4);
+        byte[] target = source.clone();
+        for (int i = 0; i < 100; i++)
+            target[random.nextInt(target.length)]++;
+        SourceSignature signature = SourceSignature.compute(new ByteBufferSeekableSource(source), 16);
+        File file = File.createTempFile("signature", ".bin");
+        try {
+            try (OutputStream out = new FileOutputStream(file)) {
+                signature.writeTo(out);
+            }
+            SourceSignature read = SourceSignature.read(file);
+            assertEquals(source.length / 16, read.getBlockCount());
+            byte[] expected = delta(null, source, target);
+            assertArrayEquals(expected, delta(signature, source, target));
+            assertArrayEquals(expected, delta(read, source, target));
+        } finally {
+            file.delete();
+        }
+    }
+}
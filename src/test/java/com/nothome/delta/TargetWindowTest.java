@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2026 Teddy Li
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Round trips of deltas that copy from the target window.
+ */
+public class TargetWindowTest {
+
+    private static final int CHUNK = 16;
+
+    /**
+     * Builds a target of source pieces, repeats of earlier target bytes and
+     * random bytes, so that target copies follow data bytes they can be
+     * extended backwards over.
+     */
+    private static byte[][] sample(Random random) {
+        byte[] source = new byte[random.nextInt(20000)];
+        random.nextBytes(source);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        for (int k = 0; k < 40; k++) {
+            byte[] done = target.toByteArray();
+            switch (random.nextInt(3)) {
+            case 0:
+                if (source.length > 0) {
+                    int off = random.nextInt(source.length);
+                    target.write(source, off, Math.min(source.length - off, random.nextInt(500)));
+                }
+                break;
+            case 1:
+                if (done.length > 0) {
+                    int off = random.nextInt(done.length);
+                    target.write(done, off, Math.min(done.length - off, 1 + random.nextInt(800)));
+                }
+                break;
+            default:
+                byte[] b = new byte[random.nextInt(100)];
+                random.nextBytes(b);
+                target.write(b, 0, b.length);
+            }
+        }
+        return new byte[][] { source, target.toByteArray() };
+    }
+
+    private static void roundTrip(Delta delta, byte[] source, byte[] target, int window) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        GDiffWriter writer = new GDiffWriter(patch, source.length, window);
+        delta.setChunkSize(CHUNK);
+        delta.doCompute(source, target, writer);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new GDiffPatcher().patch(source, new ByteArrayInputStream(patch.toByteArray()), output);
+        assertArrayEquals(target, output.toByteArray());
+    }
+
+    @Test
+    public void testExtendBackward() throws IOException {
+        Random random = new Random(5);
+        for (int i = 0; i < 200; i++) {
+            byte[][] sample = sample(random);
+            Delta delta = new Delta();
+            delta.setExtendBackward(true);
+            roundTrip(delta, sample[0], sample[1], 1 << 20);
+            roundTrip(delta, sample[0], sample[1], 64);
+        }
+    }
+
+    @Test
+    public void testIndexBudget() throws IOException {
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            byte[][] sample = sample(random);
+            Delta delta = new Delta();
+            delta.setIndexBudget(1000);
+            roundTrip(delta, sample[0], sample[1], 1 << 20);
+        }
+    }
+
+    @Test
+    public void testSegments() throws IOException {
+        Random random = new Random(11);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 200; i++) {
+                byte[][] sample = sample(random);
+                Delta delta = new Delta();
+                delta.setExtendBackward(true);
+                delta.setScanPool(pool, 500);
+                roundTrip(delta, sample[0], sample[1], 1 << 20);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}